@@ -37,13 +37,48 @@ import org.osgi.service.component.annotations.ReferencePolicy;
 @Component(service = ExtensionRegistryService.class)
 public class ExtensionRegistryService {
 
+    /**
+     * The names of the extensions used by the code generated for HTL scripts, ordered by how often they are typically called.
+     */
+    private static final String[] WELL_KNOWN_EXTENSIONS = {
+        RuntimeExtension.XSS,
+        RuntimeExtension.USE,
+        RuntimeExtension.I18N,
+        RuntimeExtension.FORMAT,
+        RuntimeExtension.JOIN,
+        RuntimeExtension.URI_MANIPULATION,
+        RuntimeExtension.INCLUDE,
+        RuntimeExtension.RESOURCE
+    };
+
     private volatile Map<String, RuntimeExtension> mapping = new HashMap<>();
+    private volatile RuntimeExtension[] wellKnownExtensions = new RuntimeExtension[WELL_KNOWN_EXTENSIONS.length];
     private final Map<String, TreeSet<RuntimeExtensionReference>> extensions = new HashMap<>();
 
     public Map<String, RuntimeExtension> extensions() {
         return mapping;
     }
 
+    /**
+     * Provides the runtime extension with the highest ranking for a name.
+     * <p>
+     * The code generated for HTL scripts calls the extensions by their name's literal, which is the same instance as the corresponding
+     * {@link RuntimeExtension} constant, so the well-known extensions are found through a reference comparison instead of a map lookup.
+     *
+     * @param name the extension's name
+     * @return the extension or {@code null} if no extension is registered for the name
+     */
+    @SuppressWarnings("java:S4973")
+    public RuntimeExtension getExtension(String name) {
+        RuntimeExtension[] current = wellKnownExtensions;
+        for (int i = 0; i < WELL_KNOWN_EXTENSIONS.length; i++) {
+            if (WELL_KNOWN_EXTENSIONS[i] == name) {
+                return current[i];
+            }
+        }
+        return mapping.get(name);
+    }
+
     @Reference(
             policy = ReferencePolicy.DYNAMIC,
             service = RuntimeExtension.class,
@@ -56,7 +91,7 @@ public class ExtensionRegistryService {
             final Set<RuntimeExtensionReference> namedExtensions =
                     extensions.computeIfAbsent(rer.getName(), key -> new TreeSet<>());
             if (namedExtensions.add(rer)) {
-                mapping = getRuntimeExtensions();
+                updateRuntimeExtensions();
             }
         }
     }
@@ -70,11 +105,22 @@ public class ExtensionRegistryService {
                 if (namedExtensions.isEmpty()) {
                     extensions.remove(rer.getName());
                 }
-                mapping = getRuntimeExtensions();
+                updateRuntimeExtensions();
             }
         }
     }
 
+    private void updateRuntimeExtensions() {
+        Map<String, RuntimeExtension> replacement = getRuntimeExtensions();
+        RuntimeExtension[] wellKnownReplacement = new RuntimeExtension[WELL_KNOWN_EXTENSIONS.length];
+        for (int i = 0; i < WELL_KNOWN_EXTENSIONS.length; i++) {
+            wellKnownReplacement[i] = replacement.get(WELL_KNOWN_EXTENSIONS[i]);
+        }
+        // both fields are only read by getExtension, which tolerates observing them from different updates
+        wellKnownExtensions = wellKnownReplacement;
+        mapping = replacement;
+    }
+
     private Map<String, RuntimeExtension> getRuntimeExtensions() {
         HashMap<String, RuntimeExtension> replacement = new HashMap<>();
         for (Map.Entry<String, TreeSet<RuntimeExtensionReference>> entry : extensions.entrySet()) {
@@ -20,6 +20,7 @@ package org.apache.sling.scripting.sightly.impl.engine;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
@@ -35,14 +36,17 @@ import org.slf4j.LoggerFactory;
         service = {ResourceBackedPojoChangeMonitor.class, ResourceChangeListener.class},
         property = {
             ResourceChangeListener.PATHS + "=glob:**/*.java",
+            ResourceChangeListener.CHANGES + "=ADDED",
             ResourceChangeListener.CHANGES + "=CHANGED",
             ResourceChangeListener.CHANGES + "=REMOVED",
         })
 public class ResourceBackedPojoChangeMonitor implements ResourceChangeListener, ExternalResourceChangeListener {
 
     private static final Logger LOG = LoggerFactory.getLogger(ResourceBackedPojoChangeMonitor.class);
+    private static final int MAX_MISSING_JAVA_USE_OBJECTS = 1024;
 
     private Map<String, Long> slyJavaUseMap = new ConcurrentHashMap<>();
+    private Set<String> missingJavaUseObjects = ConcurrentHashMap.newKeySet();
 
     /**
      * Records the usage of the Use-object available at the provided {@code path}.
@@ -71,12 +75,39 @@ public class ResourceBackedPojoChangeMonitor implements ResourceChangeListener,
         return date != null ? date : 0;
     }
 
+    /**
+     * Records that there's no Use-object source at the provided {@code path}, until a resource is added there.
+     *
+     * @param path the path that was looked up
+     */
+    public void recordMissingJavaUseObject(String path) {
+        if (path == null) {
+            throw new SightlyException("Path value cannot be null.");
+        }
+        if (missingJavaUseObjects.size() < MAX_MISSING_JAVA_USE_OBJECTS) {
+            missingJavaUseObjects.add(path);
+        }
+    }
+
+    /**
+     * Checks if a previous lookup didn't find a Use-object source at the provided {@code path}.
+     *
+     * @param path the {@code Resource} path of the Use-object
+     * @return {@code true} if there's no Use-object source at the path since it was last looked up, {@code false} otherwise
+     */
+    public boolean isMissingJavaUseObject(String path) {
+        return path != null && missingJavaUseObjects.contains(path);
+    }
+
     @Override
     public void onChange(@NotNull List<ResourceChange> changes) {
         for (ResourceChange change : changes) {
             String path = change.getPath();
             ResourceChange.ChangeType changeType = change.getType();
             switch (changeType) {
+                case ADDED:
+                    missingJavaUseObjects.remove(path);
+                    break;
                 case CHANGED:
                     if (slyJavaUseMap.containsKey(path)) {
                         slyJavaUseMap.put(path, System.currentTimeMillis());
@@ -23,18 +23,24 @@ import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 
-import java.io.PrintWriter;
+import java.io.Writer;
 
 import org.apache.sling.api.SlingJakartaHttpServletRequest;
 import org.apache.sling.api.scripting.LazyBindings;
 import org.apache.sling.api.scripting.SlingBindings;
 import org.apache.sling.scripting.sightly.SightlyException;
+import org.apache.sling.scripting.sightly.impl.engine.runtime.HTLOutputWriter;
 import org.apache.sling.scripting.sightly.impl.engine.runtime.RenderContextImpl;
+import org.apache.sling.scripting.sightly.impl.engine.runtime.SlingRuntimeObjectModel;
 import org.apache.sling.scripting.sightly.render.RenderContext;
 import org.apache.sling.scripting.sightly.render.RenderUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class SightlyCompiledScript extends CompiledScript {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(SightlyCompiledScript.class);
+
     private final SightlyScriptEngine scriptEngine;
     private final RenderUnit renderUnit;
 
@@ -46,20 +52,34 @@ public class SightlyCompiledScript extends CompiledScript {
     @Override
     public Object eval(ScriptContext context) {
         Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
-        SlingBindings slingBindings = new SlingBindings();
-        slingBindings.putAll(bindings);
+        SlingBindings slingBindings = new SlingBindingsView(bindings);
         SlingJakartaHttpServletRequest request = slingBindings.getJakartaRequest();
         if (request == null) {
             throw new SightlyException("Missing SlingJakartaHttpServletRequest from ScriptContext.");
         }
         Object oldBindings = request.getAttribute(SlingBindings.class.getName());
+        Writer writer = context.getWriter();
+        HTLOutputWriter out = HTLOutputWriter.forTarget(writer);
+        // the object model is shared by all the renders of the request, its ValueMap adaptations only by those of a single render
+        SlingRuntimeObjectModel runtimeObjectModel =
+                SlingRuntimeObjectModel.forRequest(request, scriptEngine.getConfiguration().legacyBooleanCasting());
+        runtimeObjectModel.releaseValueMaps();
         try {
             request.setAttribute(SlingBindings.class.getName(), slingBindings);
             RenderContext renderContext = new RenderContextImpl(
-                    scriptEngine.getConfiguration(), scriptEngine.getExtensionRegistryService(), context);
-            PrintWriter out = new PrintWriter(context.getWriter());
+                    scriptEngine.getExtensionRegistryService(), context, out, runtimeObjectModel);
             renderUnit.render(out, renderContext, new LazyBindings());
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(
+                        "{} ValueMap adaptations were reused while rendering the request so far.",
+                        runtimeObjectModel.getReusedValueMaps());
+            }
         } finally {
+            runtimeObjectModel.releaseValueMaps();
+            if (out != writer) {
+                // writes the buffered output to the script context's writer
+                out.close();
+            }
             request.setAttribute(SlingBindings.class.getName(), oldBindings);
         }
         return null;
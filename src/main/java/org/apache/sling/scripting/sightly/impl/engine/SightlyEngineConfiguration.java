@@ -21,6 +21,7 @@ package org.apache.sling.scripting.sightly.impl.engine;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.jar.Attributes;
@@ -72,6 +73,54 @@ public class SightlyEngineConfiguration {
                         "The Script Resolution Cache allows caching script dependencies resolution based on the the script caller, "
                                 + "reducing the number of resource tree lookups. A value lower than 1024 disables the cache.")
         int scriptResolutionCacheSize() default 0;
+
+        @AttributeDefinition(
+                name = "Precompile Scripts",
+                description =
+                        "If enabled, all the HTL scripts found in the search paths will be compiled in the background when the "
+                                + "HTL Script Engine is activated, filling the script cache before the scripts are first requested. "
+                                + "Requires a service user mapping for this bundle with read access to the search paths.")
+        boolean precompileScripts() default false;
+
+        @AttributeDefinition(
+                name = "Precompilation Threads",
+                description = "The maximum number of threads used for precompiling HTL scripts. A value lower than 1 "
+                        + "uses the number of available processors.")
+        int precompilationThreads() default 0;
+
+        @AttributeDefinition(
+                name = "Recompile Changed Scripts",
+                description =
+                        "If enabled, HTL scripts that are added or changed in the search paths will be evicted from the script "
+                                + "cache and recompiled in the background, instead of on their next request. Requires a service user "
+                                + "mapping for this bundle with read access to the search paths.")
+        boolean recompileChangedScripts() default false;
+
+        @AttributeDefinition(
+                name = "In-Memory Render Units",
+                description =
+                        "If enabled, the Java classes generated for HTL scripts (and their sources, if kept) will be stored in "
+                                + "memory instead of through the org.apache.sling.commons.classloader.ClassLoaderWriter, so that "
+                                + "compiling a script neither writes to the repository nor invalidates the dynamic class loader. "
+                                + "The classes have to be regenerated after a restart.")
+        boolean inMemoryRenderUnits() default false;
+
+        @AttributeDefinition(
+                name = "Per-Template Class Loaders",
+                description =
+                        "If enabled, the Java class generated for each HTL script will be loaded through its own class loader, "
+                                + "allowing the classes of previous compilations to be unloaded after a script is recompiled.")
+        boolean perTemplateClassLoaders() default false;
+
+        @AttributeDefinition(
+                name = "Request-Scoped Use-objects",
+                description =
+                        "A list of Use-object identifiers (e.g. fully qualified class names of Sling Models) whose objects don't "
+                                + "change during a request. Such objects are built once per request for every resource and set "
+                                + "of data-sly-use arguments, and shared by all the scripts and templates using them. The "
+                                + "objects are not told apart by the selectors or the attributes of included requests, so only "
+                                + "Use-objects which don't depend on them should be listed here.")
+        String[] requestScopedUseObjects();
     }
 
     private String engineVersion = "0";
@@ -80,6 +129,12 @@ public class SightlyEngineConfiguration {
     private Set<String> allowedExpressionOptions;
     private boolean legacyBooleanCasting;
     private int scriptResolutionCacheSize = 0;
+    private boolean precompileScripts;
+    private int precompilationThreads = 0;
+    private boolean recompileChangedScripts;
+    private boolean inMemoryRenderUnits;
+    private boolean perTemplateClassLoaders;
+    private Set<String> requestScopedUseObjects = Collections.emptySet();
 
     public static final boolean LEGACY_BOOLEAN_CASTING_DEFAULT = true;
 
@@ -111,6 +166,33 @@ public class SightlyEngineConfiguration {
         return scriptResolutionCacheSize;
     }
 
+    public boolean precompileScripts() {
+        return precompileScripts;
+    }
+
+    public int getPrecompilationThreads() {
+        if (precompilationThreads < 1) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return precompilationThreads;
+    }
+
+    public boolean recompileChangedScripts() {
+        return recompileChangedScripts;
+    }
+
+    public boolean inMemoryRenderUnits() {
+        return inMemoryRenderUnits;
+    }
+
+    public boolean perTemplateClassLoaders() {
+        return perTemplateClassLoaders;
+    }
+
+    public Set<String> getRequestScopedUseObjects() {
+        return requestScopedUseObjects;
+    }
+
     @Activate
     protected void activate(Configuration configuration) {
         InputStream ins = null;
@@ -141,5 +223,14 @@ public class SightlyEngineConfiguration {
         allowedExpressionOptions = new HashSet<>(Arrays.asList(configuration.allowedExpressionOptions()));
         legacyBooleanCasting = configuration.legacyBooleanCasting();
         scriptResolutionCacheSize = configuration.scriptResolutionCacheSize();
+        precompileScripts = configuration.precompileScripts();
+        precompilationThreads = configuration.precompilationThreads();
+        recompileChangedScripts = configuration.recompileChangedScripts();
+        inMemoryRenderUnits = configuration.inMemoryRenderUnits();
+        perTemplateClassLoaders = configuration.perTemplateClassLoaders();
+        String[] useObjects = configuration.requestScopedUseObjects();
+        if (useObjects != null && useObjects.length > 0) {
+            requestScopedUseObjects = new HashSet<>(Arrays.asList(useObjects));
+        }
     }
 }
@@ -21,11 +21,17 @@ package org.apache.sling.scripting.sightly.impl.engine;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
 
+import java.util.Dictionary;
+import java.util.Hashtable;
+
 import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.apache.sling.scripting.api.AbstractScriptEngineFactory;
 import org.apache.sling.scripting.api.ScriptCache;
 import org.apache.sling.scripting.sightly.engine.BundledUnitManager;
 import org.apache.sling.scripting.sightly.impl.engine.bundled.BundledUnitManagerImpl;
+import org.apache.sling.scripting.sightly.impl.engine.compiled.HTLScriptChangeListener;
+import org.apache.sling.scripting.sightly.impl.engine.compiled.HTLScriptPrecompiler;
 import org.apache.sling.scripting.sightly.impl.engine.compiled.SlingHTLMasterCompiler;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -78,6 +84,8 @@ public class SightlyScriptEngineFactory extends AbstractScriptEngineFactory {
     private ServiceRegistration<BundledUnitManager> bundledUnitManagerServiceRegistration;
     private ServiceRegistration<BundledUnitManagerImpl> bundledUnitManagerImplServiceRegistration;
     private BundledUnitManagerImpl bundledUnitManager;
+    private HTLScriptPrecompiler scriptPrecompiler;
+    private ServiceRegistration<ResourceChangeListener> scriptChangeListenerServiceRegistration;
 
     public SightlyScriptEngineFactory() {
         setNames("htl", "HTL", SHORT_NAME);
@@ -91,10 +99,42 @@ public class SightlyScriptEngineFactory extends AbstractScriptEngineFactory {
                 bundleContext.registerService(BundledUnitManagerImpl.class, bundledUnitManager, null);
         this.bundledUnitManagerServiceRegistration =
                 bundleContext.registerService(BundledUnitManager.class, bundledUnitManager, null);
+        if (configuration.precompileScripts() || configuration.recompileChangedScripts()) {
+            // the compiler reference is dynamic, so the precompiler has to look it up whenever it compiles
+            scriptPrecompiler = new HTLScriptPrecompiler(
+                    this,
+                    () -> slingHTLMasterCompiler,
+                    resourceResolverFactory,
+                    configuration.getPrecompilationThreads());
+            if (configuration.precompileScripts()) {
+                scriptPrecompiler.start();
+            }
+            if (configuration.recompileChangedScripts()) {
+                Dictionary<String, Object> resourceChangeListenerProperties = new Hashtable<>();
+                resourceChangeListenerProperties.put(ResourceChangeListener.PATHS, ".");
+                resourceChangeListenerProperties.put(ResourceChangeListener.CHANGES, new String[] {
+                    ResourceChangeListener.CHANGE_ADDED,
+                    ResourceChangeListener.CHANGE_CHANGED,
+                    ResourceChangeListener.CHANGE_REMOVED
+                });
+                scriptChangeListenerServiceRegistration = bundleContext.registerService(
+                        ResourceChangeListener.class,
+                        new HTLScriptChangeListener(scriptCache, scriptPrecompiler),
+                        resourceChangeListenerProperties);
+            }
+        }
     }
 
     @Deactivate
     public void deactivate() {
+        if (scriptChangeListenerServiceRegistration != null) {
+            scriptChangeListenerServiceRegistration.unregister();
+            scriptChangeListenerServiceRegistration = null;
+        }
+        if (scriptPrecompiler != null) {
+            scriptPrecompiler.stop();
+            scriptPrecompiler = null;
+        }
         if (bundledUnitManagerServiceRegistration != null) {
             bundledUnitManagerServiceRegistration.unregister();
         }
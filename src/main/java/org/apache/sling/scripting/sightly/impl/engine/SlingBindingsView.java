@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine;
+
+import javax.script.Bindings;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.apache.sling.api.scripting.SlingBindings;
+
+/**
+ * {@link SlingBindings} reading through to the bindings of a script context, instead of copying them. Values written to the view are
+ * kept by the view itself and hide the ones of the underlying bindings, which are never modified.
+ * <p>
+ * The request and response objects are copied when the view is created, so that the {@link SlingBindings} specific handling of these
+ * objects applies to the view as well.
+ */
+final class SlingBindingsView extends SlingBindings {
+
+    private static final long serialVersionUID = 1811441407232371226L;
+
+    private static final String[] REQUEST_RESPONSE_KEYS = {JAKARTA_REQUEST, JAKARTA_RESPONSE, REQUEST, RESPONSE};
+
+    private final transient Bindings bindings;
+    private final transient Set<String> removedKeys = new HashSet<>();
+
+    SlingBindingsView(Bindings bindings) {
+        this.bindings = bindings;
+        Map<String, Object> requestResponse = new HashMap<>();
+        for (String key : REQUEST_RESPONSE_KEYS) {
+            Object value = bindings.get(key);
+            if (value != null) {
+                requestResponse.put(key, value);
+            }
+        }
+        super.putAll(requestResponse);
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (super.containsKey(key)) {
+            return super.get(key);
+        }
+        return isReadThrough(key) ? bindings.get(key) : null;
+    }
+
+    @Override
+    public Object getOrDefault(Object key, Object defaultValue) {
+        return containsKey(key) ? get(key) : defaultValue;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return super.containsKey(key) || (isReadThrough(key) && bindings.containsKey(key));
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return toMap().containsValue(value);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        Object previous = containsKey(key) ? get(key) : null;
+        removedKeys.remove(key);
+        super.put(key, value);
+        return previous;
+    }
+
+    @Override
+    public Object putIfAbsent(String key, Object value) {
+        Object current = get(key);
+        if (current == null) {
+            put(key, value);
+        }
+        return current;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> map) {
+        for (Map.Entry<? extends String, ?> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public Object remove(Object key) {
+        Object previous = containsKey(key) ? get(key) : null;
+        super.remove(key);
+        if (isReadThrough(key) && bindings.containsKey(key)) {
+            removedKeys.add((String) key);
+        }
+        return previous;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (containsKey(key) && Objects.equals(get(key), value)) {
+            remove(key);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Object replace(String key, Object value) {
+        return containsKey(key) ? put(key, value) : null;
+    }
+
+    @Override
+    public boolean replace(String key, Object oldValue, Object newValue) {
+        if (containsKey(key) && Objects.equals(get(key), oldValue)) {
+            put(key, newValue);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super Object, ?> function) {
+        for (Map.Entry<String, Object> entry : toMap().entrySet()) {
+            put(entry.getKey(), function.apply(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    @Override
+    public Object computeIfAbsent(String key, Function<? super String, ?> mappingFunction) {
+        Object current = get(key);
+        if (current == null) {
+            Object value = mappingFunction.apply(key);
+            if (value != null) {
+                put(key, value);
+            }
+            return value;
+        }
+        return current;
+    }
+
+    @Override
+    public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ?> remappingFunction) {
+        Object current = get(key);
+        if (current == null) {
+            return null;
+        }
+        return putOrRemove(key, remappingFunction.apply(key, current));
+    }
+
+    @Override
+    public Object compute(String key, BiFunction<? super String, ? super Object, ?> remappingFunction) {
+        return putOrRemove(key, remappingFunction.apply(key, get(key)));
+    }
+
+    @Override
+    public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+        Objects.requireNonNull(value);
+        Object current = get(key);
+        return putOrRemove(key, current == null ? value : remappingFunction.apply(current, value));
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        removedKeys.addAll(bindings.keySet());
+    }
+
+    @Override
+    public int size() {
+        int size = super.size();
+        for (String key : bindings.keySet()) {
+            if (!super.containsKey(key) && !removedKeys.contains(key)) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(toMap().keySet());
+    }
+
+    @Override
+    public Collection<Object> values() {
+        return Collections.unmodifiableCollection(toMap().values());
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return Collections.unmodifiableMap(toMap()).entrySet();
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action) {
+        toMap().forEach(action);
+    }
+
+    /**
+     * Checks if the value for {@code key} has to be read from the underlying bindings. {@link Bindings} implementations are allowed to
+     * reject {@code null}, empty or non-{@link String} keys, so such keys are never passed to them.
+     */
+    private boolean isReadThrough(Object key) {
+        return key instanceof String
+                && !((String) key).isEmpty()
+                && !super.containsKey(key)
+                && !removedKeys.contains(key);
+    }
+
+    /**
+     * Stores the computed {@code value} of {@code key}, removing the key for {@code null}, as the {@link Map} compute methods do.
+     */
+    private Object putOrRemove(String key, Object value) {
+        if (value == null) {
+            remove(key);
+        } else {
+            put(key, value);
+        }
+        return value;
+    }
+
+    private Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        for (String key : bindings.keySet()) {
+            if (!super.containsKey(key) && !removedKeys.contains(key)) {
+                map.put(key, bindings.get(key));
+            }
+        }
+        for (Map.Entry<String, Object> entry : super.entrySet()) {
+            map.put(entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+
+    /**
+     * The underlying bindings are not serialised; a serialised view is replaced by a copy of its content.
+     */
+    private Object writeReplace() {
+        SlingBindings copy = new SlingBindings();
+        copy.putAll(toMap());
+        return copy;
+    }
+}
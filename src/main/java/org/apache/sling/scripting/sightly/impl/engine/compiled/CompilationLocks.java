@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine.compiled;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Registry of the locks guarding the compilation of a class, indexed by the class's fully qualified name. A lock is only kept in the
+ * registry while at least one thread holds it or waits for it, so the registry doesn't grow with the number of compiled classes, and
+ * threads compiling unrelated classes never contend on a shared monitor.
+ */
+final class CompilationLocks {
+
+    private final ConcurrentHashMap<String, CountedLock> locks = new ConcurrentHashMap<>();
+
+    /**
+     * Acquires the lock for the {@code key}, blocking until it's available. The locks are reentrant; every call must be paired with a
+     * call to {@link #unlock(String)}.
+     *
+     * @param key the lock's key
+     */
+    void lock(String key) {
+        CountedLock countedLock = locks.compute(key, (k, existing) -> {
+            CountedLock lock = existing == null ? new CountedLock() : existing;
+            lock.references++;
+            return lock;
+        });
+        countedLock.lock.lock();
+    }
+
+    /**
+     * Releases the lock for the {@code key}, removing it from the registry if no other thread needs it.
+     *
+     * @param key the lock's key
+     * @throws IllegalMonitorStateException if the current thread doesn't hold the lock
+     */
+    void unlock(String key) {
+        CountedLock countedLock = locks.get(key);
+        if (countedLock == null) {
+            throw new IllegalMonitorStateException("No lock is held for " + key + ".");
+        }
+        countedLock.lock.unlock();
+        locks.computeIfPresent(key, (k, existing) -> --existing.references == 0 ? null : existing);
+    }
+
+    /**
+     * @return the number of locks currently held or waited for
+     */
+    int size() {
+        return locks.size();
+    }
+
+    private static final class CountedLock {
+        private final ReentrantLock lock = new ReentrantLock();
+        // only accessed from within the map's atomic compute operations
+        private int references;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine.compiled;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.commons.classloader.ClassLoaderWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the Java sources kept for debugging purposes on a background thread, so that compilations don't wait for the storage. Pending
+ * writes for the same path are coalesced, keeping only the most recent source, and the number of pending writes is bounded: when the
+ * queue is full, new sources are dropped instead of blocking the compiling thread.
+ */
+final class GeneratedSourceWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GeneratedSourceWriter.class);
+    private static final int DROPPED_WRITES_LOG_INTERVAL = 1000;
+
+    private final int maxPendingWrites;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, PendingWrite> pendingWrites = new LinkedHashMap<>();
+    private final AtomicLong droppedWrites = new AtomicLong();
+    private boolean drainScheduled;
+
+    GeneratedSourceWriter(int maxPendingWrites) {
+        this.maxPendingWrites = maxPendingWrites;
+        executor = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "HTL Generated Sources Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules the write of a source file.
+     *
+     * @param classLoaderWriter the writer to use
+     * @param path              the file's path
+     * @param source            the source code
+     * @return {@code true} if the write was scheduled, {@code false} if it was dropped
+     */
+    boolean write(ClassLoaderWriter classLoaderWriter, String path, String source) {
+        synchronized (pendingWrites) {
+            if (!pendingWrites.containsKey(path) && pendingWrites.size() >= maxPendingWrites) {
+                long dropped = droppedWrites.incrementAndGet();
+                if (dropped == 1 || dropped % DROPPED_WRITES_LOG_INTERVAL == 0) {
+                    LOGGER.warn(
+                            "Too many pending writes of generated Java sources; {} sources were not stored so far.",
+                            dropped);
+                }
+                return false;
+            }
+            pendingWrites.put(path, new PendingWrite(classLoaderWriter, source));
+            if (!drainScheduled) {
+                try {
+                    executor.execute(this::drain);
+                    drainScheduled = true;
+                } catch (RejectedExecutionException e) {
+                    pendingWrites.remove(path);
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Writes the pending sources and stops the background thread.
+     *
+     * @param timeout the maximum time to wait for the pending writes, in milliseconds
+     */
+    void close(long timeout) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Timed out while storing the generated Java sources.");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of sources that were dropped because too many writes were pending
+     */
+    long getDroppedWrites() {
+        return droppedWrites.get();
+    }
+
+    private void drain() {
+        while (true) {
+            Map<String, PendingWrite> writes;
+            synchronized (pendingWrites) {
+                if (pendingWrites.isEmpty()) {
+                    drainScheduled = false;
+                    return;
+                }
+                writes = new LinkedHashMap<>(pendingWrites);
+                pendingWrites.clear();
+            }
+            for (Map.Entry<String, PendingWrite> write : writes.entrySet()) {
+                String path = write.getKey();
+                try (OutputStream os = write.getValue().classLoaderWriter.getOutputStream(path)) {
+                    if (os != null) {
+                        IOUtils.write(write.getValue().source, os, StandardCharsets.UTF_8);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.warn("Unable to store generated Java source {}.", path, e);
+                }
+            }
+        }
+    }
+
+    private static final class PendingWrite {
+        private final ClassLoaderWriter classLoaderWriter;
+        private final String source;
+
+        private PendingWrite(ClassLoaderWriter classLoaderWriter, String source) {
+            this.classLoaderWriter = classLoaderWriter;
+            this.source = source;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine.compiled;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.apache.sling.scripting.api.ScriptCache;
+import org.apache.sling.scripting.sightly.impl.engine.SightlyScriptEngineFactory;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Evicts the HTL scripts that were changed in the search paths from the {@link ScriptCache} and schedules their recompilation.
+ * <p>
+ * Render units don't link to the templates they call or to the Use-objects they need; these are resolved and loaded when the render
+ * unit is evaluated. Therefore a change to a script only requires the recompilation of that script's render unit.
+ */
+public class HTLScriptChangeListener implements ResourceChangeListener, ExternalResourceChangeListener {
+
+    private static final String HTL_EXTENSION = "." + SightlyScriptEngineFactory.EXTENSION;
+    private static final String JCR_CONTENT = "/jcr:content";
+
+    private final ScriptCache scriptCache;
+    private final HTLScriptPrecompiler scriptPrecompiler;
+
+    public HTLScriptChangeListener(
+            @NotNull ScriptCache scriptCache, @NotNull HTLScriptPrecompiler scriptPrecompiler) {
+        this.scriptCache = scriptCache;
+        this.scriptPrecompiler = scriptPrecompiler;
+    }
+
+    @Override
+    public void onChange(@NotNull List<ResourceChange> changes) {
+        Set<String> changedScripts = new LinkedHashSet<>();
+        for (ResourceChange change : changes) {
+            String path = change.getPath();
+            if (path == null) {
+                continue;
+            }
+            if (path.endsWith(JCR_CONTENT)) {
+                path = path.substring(0, path.length() - JCR_CONTENT.length());
+            }
+            if (!path.endsWith(HTL_EXTENSION)) {
+                continue;
+            }
+            scriptCache.removeScript(path);
+            if (change.getType() == ResourceChange.ChangeType.REMOVED) {
+                changedScripts.remove(path);
+            } else {
+                changedScripts.add(path);
+            }
+        }
+        if (!changedScripts.isEmpty()) {
+            scriptPrecompiler.recompile(changedScripts);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine.compiled;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.scripting.api.ScriptCache;
+import org.apache.sling.scripting.sightly.impl.engine.SightlyScriptEngine;
+import org.apache.sling.scripting.sightly.impl.engine.SightlyScriptEngineFactory;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiles all the HTL scripts available in the search paths on a bounded {@link ForkJoinPool}, filling the {@link ScriptCache} before
+ * the scripts are requested for the first time. The scripts are split in batches which are compiled through
+ * {@link SlingHTLMasterCompiler#compileHTLScripts(SightlyScriptEngine, Map)}, so that each batch needs a single Java compiler
+ * invocation; precompilation uses the same compilation locks as the request threads. The {@link SlingHTLMasterCompiler} is looked up
+ * every time scripts are compiled, since the service can be bound or rebound after the precompiler was created.
+ */
+public class HTLScriptPrecompiler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HTLScriptPrecompiler.class);
+    private static final String HTL_EXTENSION = "." + SightlyScriptEngineFactory.EXTENSION;
+    private static final int PROGRESS_INTERVAL = 100;
+    private static final int MAX_BATCH_SIZE = 32;
+
+    private final SightlyScriptEngineFactory sightlyScriptEngineFactory;
+    private final Supplier<SlingHTLMasterCompiler> slingHTLMasterCompiler;
+    private final ResourceResolverFactory resourceResolverFactory;
+    private final ForkJoinPool pool;
+
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger compiled = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile boolean complete;
+
+    public HTLScriptPrecompiler(
+            @NotNull SightlyScriptEngineFactory sightlyScriptEngineFactory,
+            @NotNull Supplier<SlingHTLMasterCompiler> slingHTLMasterCompiler,
+            @NotNull ResourceResolverFactory resourceResolverFactory,
+            int threads) {
+        this.sightlyScriptEngineFactory = sightlyScriptEngineFactory;
+        this.slingHTLMasterCompiler = slingHTLMasterCompiler;
+        this.resourceResolverFactory = resourceResolverFactory;
+        this.pool = new ForkJoinPool(Math.max(1, threads));
+    }
+
+    /**
+     * Starts the precompilation of the HTL scripts in the background.
+     */
+    public void start() {
+        pool.execute(this::precompile);
+    }
+
+    /**
+     * Stops the precompilation, if it's still running.
+     */
+    public void stop() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * @return {@code true} if all the HTL scripts found in the search paths were processed, {@code false} otherwise
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the number of HTL scripts found in the search paths
+     */
+    public int getTotal() {
+        return total.get();
+    }
+
+    /**
+     * @return the number of HTL scripts that were successfully compiled so far
+     */
+    public int getCompiled() {
+        return compiled.get();
+    }
+
+    /**
+     * @return the number of HTL scripts that could not be compiled so far
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Recompiles the HTL scripts found at the given paths in the background. The scripts have to be evicted from the {@link ScriptCache}
+     * before calling this method.
+     *
+     * @param scriptPaths the paths of the scripts to recompile
+     */
+    public void recompile(@NotNull Collection<String> scriptPaths) {
+        List<String> paths = new ArrayList<>(scriptPaths);
+        try {
+            pool.execute(() -> recompileScripts(paths));
+        } catch (RejectedExecutionException e) {
+            // the precompiler was stopped; the scripts will be compiled on their next request
+            LOGGER.debug("HTL scripts {} will not be recompiled, since the precompiler was stopped.", paths);
+        }
+    }
+
+    private void recompileScripts(List<String> paths) {
+        Map<String, String> scripts = new LinkedHashMap<>();
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(null)) {
+            for (String path : paths) {
+                Resource resource = resolver.getResource(path);
+                String source = resource == null ? null : readScript(resource);
+                if (source != null) {
+                    scripts.put(path, source);
+                }
+            }
+        } catch (LoginException e) {
+            LOGGER.warn("Unable to obtain a service resource resolver; HTL scripts {} will not be recompiled.", paths, e);
+            return;
+        }
+        SlingHTLMasterCompiler compiler = slingHTLMasterCompiler.get();
+        if (compiler == null) {
+            LOGGER.info(
+                    "The HTL Java compiler is not available; HTL scripts {} will be compiled on their next request.",
+                    paths);
+            return;
+        }
+        if (!scripts.isEmpty()) {
+            long start = System.nanoTime();
+            Map<String, ?> recompiled = compiler.compileHTLScripts(
+                    (SightlyScriptEngine) sightlyScriptEngineFactory.getScriptEngine(), scripts);
+            LOGGER.debug(
+                    "Recompiled HTL scripts {} in {}ms.",
+                    recompiled.keySet(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    void precompile() {
+        long start = System.currentTimeMillis();
+        SlingHTLMasterCompiler compiler = slingHTLMasterCompiler.get();
+        if (compiler == null) {
+            LOGGER.info("The HTL Java compiler is not available; HTL scripts will not be precompiled.");
+            complete = true;
+            return;
+        }
+        Map<String, String> scripts;
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(null)) {
+            scripts = collectScripts(resolver);
+        } catch (LoginException e) {
+            LOGGER.warn("Unable to obtain a service resource resolver; HTL scripts will not be precompiled.", e);
+            complete = true;
+            return;
+        }
+        total.set(scripts.size());
+        LOGGER.info("Precompiling {} HTL scripts.", scripts.size());
+        SightlyScriptEngine sightlyScriptEngine = (SightlyScriptEngine) sightlyScriptEngineFactory.getScriptEngine();
+        int batchSize = Math.max(
+                1, Math.min(MAX_BATCH_SIZE, (scripts.size() + pool.getParallelism() - 1) / pool.getParallelism()));
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        Map<String, String> batch = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<String, String> script : scripts.entrySet()) {
+                batch.put(script.getKey(), script.getValue());
+                if (batch.size() == batchSize) {
+                    Map<String, String> scriptsBatch = batch;
+                    tasks.add(pool.submit(() -> compile(compiler, sightlyScriptEngine, scriptsBatch)));
+                    batch = new LinkedHashMap<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                Map<String, String> scriptsBatch = batch;
+                tasks.add(pool.submit(() -> compile(compiler, sightlyScriptEngine, scriptsBatch)));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        } catch (RejectedExecutionException | CancellationException e) {
+            // the precompiler was stopped while the batches were submitted or compiled
+            LOGGER.info(
+                    "Stopped the precompilation of HTL scripts after {} of {} scripts.", compiled.get(), total.get());
+            return;
+        }
+        complete = true;
+        LOGGER.info(
+                "Precompiled {} of {} HTL scripts in {}ms; {} scripts could not be compiled.",
+                compiled.get(),
+                total.get(),
+                System.currentTimeMillis() - start,
+                failed.get());
+    }
+
+    private void compile(
+            SlingHTLMasterCompiler compiler, SightlyScriptEngine sightlyScriptEngine, Map<String, String> scripts) {
+        long start = System.nanoTime();
+        int batchCompiled = 0;
+        try {
+            batchCompiled = compiler.compileHTLScripts(sightlyScriptEngine, scripts).size();
+            LOGGER.debug(
+                    "Precompiled a batch of {} HTL scripts in {}ms.",
+                    scripts.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (Exception e) {
+            LOGGER.warn("Unable to precompile HTL scripts {}.", scripts.keySet(), e);
+        }
+        int before = compiled.getAndAdd(batchCompiled);
+        failed.addAndGet(scripts.size() - batchCompiled);
+        if ((before + batchCompiled) / PROGRESS_INTERVAL > before / PROGRESS_INTERVAL) {
+            LOGGER.info("Precompiled {} of {} HTL scripts.", before + batchCompiled, total.get());
+        }
+    }
+
+    private Map<String, String> collectScripts(ResourceResolver resolver) {
+        Map<String, String> scripts = new LinkedHashMap<>();
+        for (String searchPath : resolver.getSearchPath()) {
+            Resource root = resolver.getResource(searchPath);
+            if (root == null) {
+                continue;
+            }
+            Deque<Resource> resources = new ArrayDeque<>();
+            resources.push(root);
+            while (!resources.isEmpty() && !Thread.currentThread().isInterrupted()) {
+                Resource resource = resources.pop();
+                if (resource.getName().endsWith(HTL_EXTENSION)) {
+                    String source = readScript(resource);
+                    if (source != null) {
+                        scripts.putIfAbsent(resource.getPath(), source);
+                        continue;
+                    }
+                }
+                Iterator<Resource> children = resource.listChildren();
+                while (children.hasNext()) {
+                    resources.push(children.next());
+                }
+            }
+        }
+        return scripts;
+    }
+
+    private String readScript(Resource resource) {
+        InputStream inputStream = resource.adaptTo(InputStream.class);
+        if (inputStream == null) {
+            return null;
+        }
+        String encoding = resource.getResourceMetadata().getCharacterEncoding();
+        if (StringUtils.isEmpty(encoding)) {
+            encoding = "UTF-8";
+        }
+        try (InputStream is = inputStream) {
+            return IOUtils.toString(is, encoding);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read HTL script {}.", resource.getPath(), e);
+            return null;
+        }
+    }
+}
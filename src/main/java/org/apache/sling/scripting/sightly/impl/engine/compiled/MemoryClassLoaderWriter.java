@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine.compiled;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.sling.commons.classloader.ClassLoaderWriter;
+import org.apache.sling.commons.classloader.DynamicClassLoaderManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ClassLoaderWriter} that keeps the written files in memory, so that compiling HTL scripts doesn't write to the repository and
+ * doesn't invalidate the dynamic class loader.
+ * <p>
+ * The classes are defined by a class loader whose parent is the dynamic class loader. Since a class loader cannot define a class twice,
+ * writing a class that the current class loader already defined starts a new class loader generation; the previous generation remains
+ * reachable only through the objects created from its classes.
+ */
+final class MemoryClassLoaderWriter implements ClassLoaderWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemoryClassLoaderWriter.class);
+    private static final String CLASS_EXTENSION = ".class";
+
+    private final DynamicClassLoaderManager dynamicClassLoaderManager;
+    private final Map<String, MemoryFile> files = new ConcurrentHashMap<>();
+    private volatile MemoryClassLoader classLoader;
+
+    MemoryClassLoaderWriter(DynamicClassLoaderManager dynamicClassLoaderManager) {
+        this.dynamicClassLoaderManager = dynamicClassLoaderManager;
+    }
+
+    @Override
+    public OutputStream getOutputStream(String path) {
+        return new ByteArrayOutputStream() {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                if (!closed) {
+                    closed = true;
+                    files.put(path, new MemoryFile(toByteArray()));
+                    invalidate(path);
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream getInputStream(String path) throws IOException {
+        MemoryFile file = files.get(path);
+        if (file == null) {
+            throw new FileNotFoundException(path);
+        }
+        return new ByteArrayInputStream(file.content);
+    }
+
+    @Override
+    public long getLastModified(String path) {
+        MemoryFile file = files.get(path);
+        return file == null ? -1 : file.lastModified;
+    }
+
+    @Override
+    public boolean delete(String path) {
+        boolean deleted = files.remove(path) != null;
+        invalidate(path);
+        String folder = path.endsWith("/") ? path : path + "/";
+        for (String filePath : files.keySet()) {
+            if (filePath.startsWith(folder) && files.remove(filePath) != null) {
+                deleted = true;
+                invalidate(filePath);
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public boolean rename(String oldPath, String newPath) {
+        MemoryFile file = files.remove(oldPath);
+        if (file == null) {
+            return false;
+        }
+        files.put(newPath, file);
+        invalidate(oldPath);
+        invalidate(newPath);
+        return true;
+    }
+
+    @Override
+    public ClassLoader getClassLoader() {
+        ClassLoader parent = dynamicClassLoaderManager.getDynamicClassLoader();
+        MemoryClassLoader current = classLoader;
+        if (current == null || current.getParent() != parent) {
+            synchronized (this) {
+                current = classLoader;
+                if (current == null || current.getParent() != parent) {
+                    current = new MemoryClassLoader(parent, files);
+                    classLoader = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Discards the current class loader if it already defined the class stored at {@code path}.
+     */
+    private void invalidate(String path) {
+        MemoryClassLoader current = classLoader;
+        if (current != null && path.endsWith(CLASS_EXTENSION)) {
+            String className = path.substring(1, path.length() - CLASS_EXTENSION.length())
+                    .replace('/', '.');
+            if (current.definedClasses.contains(className)) {
+                synchronized (this) {
+                    if (classLoader == current) {
+                        classLoader = null;
+                        LOGGER.debug("Class {} was changed; a new class loader generation will be created.", className);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class MemoryFile {
+        private final byte[] content;
+        private final long lastModified;
+
+        private MemoryFile(byte[] content) {
+            this.content = content;
+            this.lastModified = System.currentTimeMillis();
+        }
+    }
+
+    private static final class MemoryClassLoader extends ClassLoader {
+
+        static {
+            ClassLoader.registerAsParallelCapable();
+        }
+
+        private final Map<String, MemoryFile> files;
+        private final Set<String> definedClasses = ConcurrentHashMap.newKeySet();
+
+        private MemoryClassLoader(ClassLoader parent, Map<String, MemoryFile> files) {
+            super(parent);
+            this.files = files;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            MemoryFile file = files.get("/" + name.replace('.', '/') + CLASS_EXTENSION);
+            if (file == null) {
+                throw new ClassNotFoundException(name);
+            }
+            definedClasses.add(name);
+            return defineClass(name, file.content, 0, file.content.length);
+        }
+    }
+}
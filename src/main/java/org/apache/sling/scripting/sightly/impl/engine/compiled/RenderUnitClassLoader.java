@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine.compiled;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.Cleaner;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.commons.classloader.ClassLoaderWriter;
+
+/**
+ * Class loader defining the class generated for a single HTL script, together with its nested classes, from the bytes stored by a
+ * {@link ClassLoaderWriter}. All other classes are loaded by the parent class loader.
+ * <p>
+ * Since every compilation of a script gets its own class loader, the classes of a previous compilation can be unloaded as soon as the
+ * render unit created from them is no longer referenced, without having to replace the dynamic class loader.
+ */
+final class RenderUnitClassLoader extends ClassLoader {
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final AtomicInteger LIVE_CLASS_LOADERS = new AtomicInteger();
+
+    private final ClassLoaderWriter classLoaderWriter;
+    private final String className;
+    private final String nestedClassPrefix;
+
+    RenderUnitClassLoader(ClassLoader parent, ClassLoaderWriter classLoaderWriter, String className) {
+        super(parent);
+        this.classLoaderWriter = classLoaderWriter;
+        this.className = className;
+        this.nestedClassPrefix = className + "$";
+        LIVE_CLASS_LOADERS.incrementAndGet();
+        CLEANER.register(this, LIVE_CLASS_LOADERS::decrementAndGet);
+    }
+
+    /**
+     * @return the number of render unit class loaders that were not yet garbage collected
+     */
+    static int getLiveClassLoaders() {
+        return LIVE_CLASS_LOADERS.get();
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!className.equals(name) && !name.startsWith(nestedClassPrefix)) {
+            return super.loadClass(name, resolve);
+        }
+        // the render unit's classes are defined by this class loader, even if the parent can also load them
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> clazz = findLoadedClass(name);
+            if (clazz == null) {
+                clazz = findClass(name);
+            }
+            if (resolve) {
+                resolveClass(clazz);
+            }
+            return clazz;
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        try (InputStream is = classLoaderWriter.getInputStream("/" + name.replace('.', '/') + ".class")) {
+            if (is == null) {
+                throw new ClassNotFoundException(name);
+            }
+            byte[] bytes = IOUtils.toByteArray(is);
+            return defineClass(name, bytes, 0, bytes.length);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+    }
+}
@@ -28,15 +28,26 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.io.StringReader;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.regex.Matcher;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -69,8 +80,11 @@ import org.apache.sling.scripting.sightly.java.compiler.GlobalShadowCheckBackend
 import org.apache.sling.scripting.sightly.java.compiler.JavaClassBackendCompiler;
 import org.apache.sling.scripting.sightly.render.RenderContext;
 import org.apache.sling.scripting.sightly.render.RenderUnit;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.slf4j.Logger;
@@ -113,10 +127,24 @@ public class SlingHTLMasterCompiler {
 
     private static final String NO_SCRIPT = "NO_SCRIPT";
     private static final String JAVA_EXTENSION = ".java";
+    private static final String SOURCE_HASH_EXTENSION = ".sha256";
+    private static final int MAX_PENDING_SOURCE_WRITES = 1000;
+    private static final long SOURCE_WRITES_TIMEOUT = 10000;
     static final String SIGHTLY_CONFIG_FILE = "/sightly.config";
 
-    private final Map<String, Lock> compilationLocks = new HashMap<>();
+    private final CompilationLocks compilationLocks = new CompilationLocks();
+
+    /*
+     * the HTL front-end and the Java backend are provided by their own bundles, and the code they generate changes with their versions
+     */
+    private final List<String> generatorVersions =
+            Arrays.asList(getBundleVersion(SightlyCompiler.class), getBundleVersion(JavaClassBackendCompiler.class));
+    private final GeneratedSourceWriter generatedSourceWriter = new GeneratedSourceWriter(MAX_PENDING_SOURCE_WRITES);
+    private final ConcurrentHashMap<String, CompletableFuture<SightlyCompiledScript>> pendingCompilations =
+            new ConcurrentHashMap<>();
     private Options options;
+    private ClassLoaderWriter renderUnitClassLoaderWriter;
+    private Options renderUnitOptions;
 
     @Activate
     void activate() {
@@ -129,6 +157,16 @@ public class SlingHTLMasterCompiler {
         options.put(Options.KEY_TARGET_VERSION, version);
         options.put(Options.KEY_CLASS_LOADER_WRITER, classLoaderWriter);
         options.put(Options.KEY_FORCE_COMPILATION, true);
+        if (sightlyEngineConfiguration.inMemoryRenderUnits()) {
+            renderUnitClassLoaderWriter = new MemoryClassLoaderWriter(dynamicClassLoaderManager);
+            renderUnitOptions = new Options();
+            renderUnitOptions.putAll(options);
+            renderUnitOptions.put(Options.KEY_CLASS_LOADER_WRITER, renderUnitClassLoaderWriter);
+            LOGGER.info("The classes generated for HTL scripts will be kept in memory.");
+        } else {
+            renderUnitClassLoaderWriter = null;
+            renderUnitOptions = null;
+        }
 
         InputStream is;
         boolean newVersion = true;
@@ -171,6 +209,11 @@ public class SlingHTLMasterCompiler {
                 SightlyCompiler.withKnownExpressionOptions(sightlyEngineConfiguration.getAllowedExpressionOptions());
     }
 
+    @Deactivate
+    void deactivate() {
+        generatedSourceWriter.close(SOURCE_WRITES_TIMEOUT);
+    }
+
     /**
      * This method returns an Object instance based on a {@link Resource}-backed class that is either found through regular classloading
      * mechanisms or on-the-fly compilation. In case the requested class does not denote a fully qualified class name, this service will
@@ -184,11 +227,17 @@ public class SlingHTLMasterCompiler {
         LOGGER.debug("Attempting to load class {}.", className);
         try {
             if (className.contains(".")) {
+                // bundle classes are requested on every render; don't look them up in the repository again
+                String pojoPath = getPOJOPath(className);
+                if (resourceBackedPojoChangeMonitor.isMissingJavaUseObject(pojoPath)) {
+                    return null;
+                }
                 Resource pojoResource = getPOJOFromFQCN(
                         scriptingResourceResolverProvider.getRequestScopedResourceResolver(), className);
                 if (pojoResource != null) {
                     return getUseObjectAndRecompileIfNeeded(pojoResource);
                 }
+                resourceBackedPojoChangeMonitor.recordMissingJavaUseObject(pojoPath);
             } else {
                 Resource pojoResource =
                         scriptDependencyResolver.resolveScript(renderContext, className + JAVA_EXTENSION);
@@ -216,67 +265,144 @@ public class SlingHTLMasterCompiler {
                 sName = getScriptName(scriptContext);
             }
             final String scriptName = sName;
-            CachedScript cachedScript = scriptCache.getScript(scriptName);
-            if (cachedScript != null && cachedScript.getCompiledScript() instanceof SightlyCompiledScript) {
-                return (SightlyCompiledScript) cachedScript.getCompiledScript();
+            SightlyCompiledScript cachedScript = getCachedScript(scriptName);
+            if (cachedScript != null) {
+                return cachedScript;
             }
-            CompilationUnit compilationUnit = new CompilationUnit() {
-                @Override
-                public String getScriptName() {
-                    return scriptName;
+            if (NO_SCRIPT.equals(scriptName)) {
+                return compileAndCache(engine, scriptName, script, scriptContext);
+            }
+            /*
+             * only one thread compiles a script at a time; the threads requesting the same script in the meantime wait for the
+             * compilation's result instead of running the HTL front end and the Java compiler again
+             */
+            CompletableFuture<SightlyCompiledScript> compilation = new CompletableFuture<>();
+            CompletableFuture<SightlyCompiledScript> pendingCompilation =
+                    pendingCompilations.putIfAbsent(scriptName, compilation);
+            if (pendingCompilation != null) {
+                return awaitCompilation(scriptName, pendingCompilation);
+            }
+            try {
+                SightlyCompiledScript compiledScript = getCachedScript(scriptName);
+                if (compiledScript == null) {
+                    compiledScript = compileAndCache(engine, scriptName, script, scriptContext);
                 }
+                compilation.complete(compiledScript);
+                return compiledScript;
+            } catch (ScriptException | RuntimeException | Error e) {
+                compilation.completeExceptionally(e);
+                throw e;
+            } finally {
+                pendingCompilations.remove(scriptName, compilation);
+            }
+        } finally {
+            Thread.currentThread().setContextClassLoader(old);
+        }
+    }
 
-                @Override
-                public Reader getScriptReader() {
-                    return script;
-                }
-            };
-            GlobalShadowCheckBackendCompiler shadowCheckBackendCompiler = null;
-            SlingJavaImportsAnalyser importsAnalyser = new SlingJavaImportsAnalyser(resourceResolverFactory);
-            JavaClassBackendCompiler javaClassBackendCompiler = new JavaClassBackendCompiler(importsAnalyser);
-            if (scriptContext != null) {
-                Bindings bindings = scriptContext.getBindings(ScriptContext.ENGINE_SCOPE);
-                Set<String> globals = bindings.keySet();
-                shadowCheckBackendCompiler = new GlobalShadowCheckBackendCompiler(javaClassBackendCompiler, globals);
-            }
-            CompilationResult result = shadowCheckBackendCompiler == null
-                    ? sightlyCompiler.compile(compilationUnit, javaClassBackendCompiler)
-                    : sightlyCompiler.compile(compilationUnit, shadowCheckBackendCompiler);
-            if (!result.getWarnings().isEmpty()) {
-                for (CompilerMessage warning : result.getWarnings()) {
-                    LOGGER.warn(
-                            "Script {} {}:{}: {}",
-                            warning.getScriptName(),
-                            warning.getLine(),
-                            warning.getColumn(),
-                            warning.getMessage());
-                }
+    private SightlyCompiledScript compileAndCache(
+            SightlyScriptEngine engine, String scriptName, Reader script, ScriptContext scriptContext)
+            throws ScriptException {
+        Set<String> globals = null;
+        if (scriptContext != null) {
+            Bindings bindings = scriptContext.getBindings(ScriptContext.ENGINE_SCOPE);
+            globals = bindings.keySet();
+        }
+        SourceIdentifier sourceIdentifier = new SourceIdentifier(sightlyEngineConfiguration, scriptName);
+        String source;
+        try {
+            source = IOUtils.toString(script);
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+        String sourceHash = computeSourceHash(scriptName, source);
+        Object renderUnit = loadPersistedRenderUnit(sourceIdentifier, sourceHash);
+        if (renderUnit == null) {
+            String javaSourceCode = generateJavaSource(scriptName, sourceIdentifier, new StringReader(source), globals);
+            renderUnit = compileSource(sourceIdentifier, javaSourceCode, true, sourceHash);
+        }
+        return cacheRenderUnit(engine, scriptName, renderUnit);
+    }
+
+    private SightlyCompiledScript awaitCompilation(
+            String scriptName, CompletableFuture<SightlyCompiledScript> pendingCompilation) throws ScriptException {
+        LOGGER.debug("Waiting for the pending compilation of script {}.", scriptName);
+        try {
+            return pendingCompilation.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ScriptException("Interrupted while waiting for the compilation of script " + scriptName + ".");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ScriptException) {
+                throw (ScriptException) cause;
             }
-            if (!result.getErrors().isEmpty()) {
-                CompilerMessage error = result.getErrors().get(0);
-                throw new ScriptException(
-                        error.getMessage(), error.getScriptName(), error.getLine(), error.getColumn());
-            }
-            SourceIdentifier sourceIdentifier = new SourceIdentifier(sightlyEngineConfiguration, scriptName);
-            String javaSourceCode = javaClassBackendCompiler.build(sourceIdentifier);
-            Object renderUnit = compileSource(sourceIdentifier, javaSourceCode);
-            if (renderUnit instanceof RenderUnit) {
-                SightlyCompiledScript compiledScript = new SightlyCompiledScript(engine, (RenderUnit) renderUnit);
-                scriptCache.putScript(new CachedScript() {
-                    @Override
-                    public String getScriptPath() {
-                        return scriptName;
-                    }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SightlyException(cause);
+        }
+    }
 
-                    @Override
-                    public CompiledScript getCompiledScript() {
-                        return compiledScript;
+    /**
+     * Compiles a batch of HTL scripts. The Java classes generated for all the scripts that are not already available in the {@link
+     * ScriptCache} are compiled with a single {@link JavaCompiler} invocation and loaded at once, saving the compiler setup cost
+     * that would otherwise be paid for every script. The batch doesn't wait for, nor register with, the pending compilations of
+     * {@link #compileHTLScript(SightlyScriptEngine, Reader, ScriptContext)}; a class compiled by both at the same time is compiled
+     * twice, one compilation after the other, since both take the class's compilation lock.
+     *
+     * @param engine  the engine that will evaluate the compiled scripts
+     * @param scripts the scripts to compile, as a map of script names to script sources
+     * @return the compiled scripts, indexed by script name; the scripts that could not be compiled are not part of the result
+     */
+    public Map<String, SightlyCompiledScript> compileHTLScripts(
+            final SightlyScriptEngine engine, final Map<String, String> scripts) {
+        ClassLoader old = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(dynamicClassLoaderManager.getDynamicClassLoader());
+        try {
+            Map<String, SightlyCompiledScript> compiledScripts = new LinkedHashMap<>();
+            Map<String, SourceIdentifier> sourceIdentifiers = new LinkedHashMap<>();
+            Map<SourceIdentifier, String> javaSources = new LinkedHashMap<>();
+            Map<SourceIdentifier, String> sourceHashes = new HashMap<>();
+            for (Map.Entry<String, String> script : scripts.entrySet()) {
+                String scriptName = script.getKey();
+                SightlyCompiledScript cachedScript = getCachedScript(scriptName);
+                if (cachedScript != null) {
+                    compiledScripts.put(scriptName, cachedScript);
+                    continue;
+                }
+                SourceIdentifier sourceIdentifier = new SourceIdentifier(sightlyEngineConfiguration, scriptName);
+                String sourceHash = computeSourceHash(scriptName, script.getValue());
+                Object persistedRenderUnit = loadPersistedRenderUnit(sourceIdentifier, sourceHash);
+                if (persistedRenderUnit != null) {
+                    try {
+                        compiledScripts.put(scriptName, cacheRenderUnit(engine, scriptName, persistedRenderUnit));
+                        continue;
+                    } catch (SightlyException e) {
+                        LOGGER.debug("Class persisted for HTL script {} is not a render unit.", scriptName, e);
                     }
-                });
-                return compiledScript;
-            } else {
-                throw new SightlyException("Expected a RenderUnit.");
+                }
+                try {
+                    javaSources.put(
+                            sourceIdentifier,
+                            generateJavaSource(scriptName, sourceIdentifier, new StringReader(script.getValue()), null));
+                    sourceHashes.put(sourceIdentifier, sourceHash);
+                    sourceIdentifiers.put(scriptName, sourceIdentifier);
+                } catch (ScriptException | SightlyException e) {
+                    LOGGER.warn("Unable to compile HTL script {}.", scriptName, e);
+                }
+            }
+            Map<String, Object> renderUnits = compileSources(javaSources, true, sourceHashes);
+            for (Map.Entry<String, SourceIdentifier> entry : sourceIdentifiers.entrySet()) {
+                Object renderUnit = renderUnits.get(entry.getValue().getFullyQualifiedClassName());
+                if (renderUnit != null) {
+                    compiledScripts.put(entry.getKey(), cacheRenderUnit(engine, entry.getKey(), renderUnit));
+                }
             }
+            return compiledScripts;
         } finally {
             Thread.currentThread().setContextClassLoader(old);
         }
@@ -295,6 +421,16 @@ public class SlingHTLMasterCompiler {
      * @return the {@code Resource} backing the class, or {@code null} if one cannot be found
      */
     Resource getPOJOFromFQCN(ResourceResolver resolver, String fullyQualifiedClassName) {
+        return resolver.getResource(getPOJOPath(fullyQualifiedClassName));
+    }
+
+    /**
+     * Provides the path of the {@code Resource} that would provide the source code for the Java class {@code fullyQualifiedClassName}.
+     *
+     * @param fullyQualifiedClassName the FQCN
+     * @return the path of the Java source
+     */
+    static String getPOJOPath(String fullyQualifiedClassName) {
         StringBuilder pathElements = new StringBuilder("/");
         String[] classElements = StringUtils.split(fullyQualifiedClassName, '.');
         for (int i = 0; i < classElements.length; i++) {
@@ -303,7 +439,7 @@ public class SlingHTLMasterCompiler {
                 pathElements.append("/");
             }
         }
-        return resolver.getResource(pathElements + JAVA_EXTENSION);
+        return pathElements.append(JAVA_EXTENSION).toString();
     }
 
     /**
@@ -311,78 +447,144 @@ public class SlingHTLMasterCompiler {
      *
      * @param sourceIdentifier the source identifier
      * @param sourceCode       the source code from which to generate the class
+     * @param generatedSource  {@code true} if the source code was generated by the HTL engine and therefore already declares its
+     *                         package, {@code false} otherwise
      * @return object instance of the class to compile
      */
-    private Object compileSource(SourceIdentifier sourceIdentifier, String sourceCode) {
-        Lock lock;
-        final String fqcn = sourceIdentifier.getFullyQualifiedClassName();
-        synchronized (compilationLocks) {
-            lock = compilationLocks.get(fqcn);
-            if (lock == null) {
-                lock = new ReentrantLock();
-                compilationLocks.put(fqcn, lock);
-            }
+    private Object compileSource(SourceIdentifier sourceIdentifier, String sourceCode, boolean generatedSource) {
+        return compileSource(sourceIdentifier, sourceCode, generatedSource, null);
+    }
+
+    /**
+     * Compiles a class using the passed fully qualified class name and its source code, persisting the source hash of the HTL script
+     * the class was generated from while the class's compilation lock is held.
+     *
+     * @param sourceIdentifier the source identifier
+     * @param sourceCode       the source code from which to generate the class
+     * @param generatedSource  {@code true} if the source code was generated by the HTL engine and therefore already declares its
+     *                         package, {@code false} otherwise
+     * @param sourceHash       the source hash to persist with the class, or {@code null}
+     * @return object instance of the class to compile
+     */
+    private Object compileSource(
+            SourceIdentifier sourceIdentifier, String sourceCode, boolean generatedSource, String sourceHash) {
+        Map<SourceIdentifier, String> sourceHashes = sourceHash == null
+                ? Collections.emptyMap()
+                : Collections.singletonMap(sourceIdentifier, sourceHash);
+        return compileSources(Collections.singletonMap(sourceIdentifier, sourceCode), generatedSource, sourceHashes)
+                .get(sourceIdentifier.getFullyQualifiedClassName());
+    }
+
+    /**
+     * Compiles several classes with a single {@link JavaCompiler} invocation. If the batch cannot be compiled, the classes are compiled
+     * one by one, so that a faulty class does not prevent the others from being compiled.
+     *
+     * @param sources         the source codes from which to generate the classes, indexed by their source identifiers
+     * @param generatedSources {@code true} if the source codes were generated by the HTL engine and therefore already declare their
+     *                         packages, {@code false} otherwise
+     * @param sourceHashes     the source hashes to persist with the compiled classes, indexed by their source identifiers; they are
+     *                         written before the compilation locks are released, so that a hash always describes the class stored
+     *                         with it
+     * @return object instances of the compiled classes, indexed by their fully qualified class names
+     */
+    private Map<String, Object> compileSources(
+            Map<SourceIdentifier, String> sources, boolean generatedSources, Map<SourceIdentifier, String> sourceHashes) {
+        if (sources.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> sourcesByClassName = new TreeMap<>();
+        for (Map.Entry<SourceIdentifier, String> entry : sources.entrySet()) {
+            sourcesByClassName.put(
+                    entry.getKey().getFullyQualifiedClassName(),
+                    generatedSources
+                            ? entry.getValue()
+                            : normalisePackageDeclaration(entry.getKey(), entry.getValue()));
+        }
+        // always acquire the locks in the same order, to avoid deadlocks between overlapping batches
+        List<String> lockedClassNames = new ArrayList<>(sourcesByClassName.size());
+        for (String fqcn : sourcesByClassName.keySet()) {
+            compilationLocks.lock(fqcn);
+            lockedClassNames.add(fqcn);
         }
-        lock.lock();
+        ClassLoaderWriter writer = getClassLoaderWriter(generatedSources);
         try {
-            if (sightlyEngineConfiguration.keepGenerated()) {
-                String path = "/" + fqcn.replace(".", "/") + JAVA_EXTENSION;
-                OutputStream os = classLoaderWriter.getOutputStream(path);
-                IOUtils.write(sourceCode, os, StandardCharsets.UTF_8);
-                IOUtils.closeQuietly(os);
-            }
-            String[] sourceCodeLines = sourceCode.split("\\r\\n|[\\n\\x0B\\x0C\\r\\u0085\\u2028\\u2029]");
-            boolean foundPackageDeclaration = false;
-            for (String line : sourceCodeLines) {
-                Matcher matcher = Patterns.JAVA_PACKAGE_DECLARATION.matcher(line);
-                if (matcher.matches()) {
-                    /*
-                     * This matching might return false positives like:
-                     * // package a.b.c;
-                     *
-                     * where from a syntactic point of view the source code doesn't have a package declaration and the expectancy is that our
-                     * SightlyJavaCompilerService will add one.
-                     */
-                    foundPackageDeclaration = true;
-                    break;
+            List<org.apache.sling.commons.compiler.CompilationUnit> compilationUnits =
+                    new ArrayList<>(sourcesByClassName.size());
+            for (Map.Entry<String, String> entry : sourcesByClassName.entrySet()) {
+                String fqcn = entry.getKey();
+                if (sightlyEngineConfiguration.keepGenerated()) {
+                    String path = "/" + fqcn.replace(".", "/") + JAVA_EXTENSION;
+                    generatedSourceWriter.write(writer, path, entry.getValue());
                 }
+                compilationUnits.add(new SightlyCompilationUnit(entry.getValue(), fqcn));
             }
-
-            if (!foundPackageDeclaration) {
-                sourceCode = "package " + sourceIdentifier.getPackageName() + ";\n" + sourceCode;
-            }
-
-            org.apache.sling.commons.compiler.CompilationUnit compilationUnit =
-                    new SightlyCompilationUnit(sourceCode, fqcn);
             long start = System.currentTimeMillis();
             org.apache.sling.commons.compiler.CompilationResult compilationResult = javaCompiler.compile(
-                    new org.apache.sling.commons.compiler.CompilationUnit[] {compilationUnit}, options);
+                    compilationUnits.toArray(new org.apache.sling.commons.compiler.CompilationUnit[0]),
+                    getCompilerOptions(generatedSources));
             long end = System.currentTimeMillis();
             List<org.apache.sling.commons.compiler.CompilerMessage> errors = compilationResult.getErrors();
             if (errors != null && !errors.isEmpty()) {
-                throw new SightlyException(createErrorMsg(errors));
+                if (sourcesByClassName.size() == 1) {
+                    throw new SightlyException(createErrorMsg(errors));
+                }
+                LOGGER.debug(
+                        "Batch compilation of {} classes failed; compiling the classes one by one.",
+                        sourcesByClassName.size());
+                return compileSourcesIndividually(sources, generatedSources, sourceHashes);
             }
             if (compilationResult.didCompile()) {
-                LOGGER.debug("Class {} was compiled in {}ms.", fqcn, end - start);
+                LOGGER.debug("Classes {} were compiled in {}ms.", sourcesByClassName.keySet(), end - start);
             }
-            /*
-             * the class loader might have become dirty, so let the {@link ClassLoaderWriter} decide which class loader to return
-             */
-            return classLoaderWriter
-                    .getClassLoader()
-                    .loadClass(fqcn)
-                    .getDeclaredConstructor()
-                    .newInstance();
-        } catch (ClassNotFoundException
-                | InstantiationException
-                | IllegalAccessException
-                | IOException
-                | NoSuchMethodException
-                | InvocationTargetException e) {
+            Map<String, Object> instances = new LinkedHashMap<>();
+            if (generatedSources && sightlyEngineConfiguration.perTemplateClassLoaders()) {
+                for (String fqcn : sourcesByClassName.keySet()) {
+                    instances.put(fqcn, loadRenderUnit(writer, fqcn));
+                }
+            } else {
+                /*
+                 * the class loader might have become dirty, so let the {@link ClassLoaderWriter} decide which class loader to return
+                 */
+                ClassLoader classLoader = writer.getClassLoader();
+                for (String fqcn : sourcesByClassName.keySet()) {
+                    instances.put(fqcn, classLoader.loadClass(fqcn).getDeclaredConstructor().newInstance());
+                }
+            }
+            for (Map.Entry<SourceIdentifier, String> sourceHash : sourceHashes.entrySet()) {
+                writeSourceHash(sourceHash.getKey(), sourceHash.getValue());
+            }
+            return instances;
+        } catch (ReflectiveOperationException e) {
             throw new SightlyException(e);
         } finally {
-            lock.unlock();
+            for (int i = lockedClassNames.size() - 1; i >= 0; i--) {
+                compilationLocks.unlock(lockedClassNames.get(i));
+            }
+        }
+    }
+
+    private Map<String, Object> compileSourcesIndividually(
+            Map<SourceIdentifier, String> sources, boolean generatedSources, Map<SourceIdentifier, String> sourceHashes) {
+        Map<String, Object> instances = new LinkedHashMap<>();
+        for (Map.Entry<SourceIdentifier, String> entry : sources.entrySet()) {
+            String fqcn = entry.getKey().getFullyQualifiedClassName();
+            try {
+                instances.put(
+                        fqcn,
+                        compileSource(
+                                entry.getKey(), entry.getValue(), generatedSources, sourceHashes.get(entry.getKey())));
+            } catch (SightlyException e) {
+                LOGGER.warn("Unable to compile class {}.", fqcn, e);
+            }
         }
+        return instances;
+    }
+
+    private String normalisePackageDeclaration(SourceIdentifier sourceIdentifier, String sourceCode) {
+        if (!Patterns.hasJavaPackageDeclaration(sourceCode)) {
+            sourceCode = "package " + sourceIdentifier.getPackageName() + ";\n" + sourceCode;
+        }
+        return sourceCode;
     }
 
     private Object getUseObjectAndRecompileIfNeeded(Resource pojoResource)
@@ -400,7 +602,8 @@ public class SlingHTLMasterCompiler {
             if (classLastModifiedDate < 0 || sourceLastModifiedDate > classLastModifiedDate) {
                 return compileSource(
                         sourceIdentifier,
-                        IOUtils.toString(pojoResource.adaptTo(InputStream.class), StandardCharsets.UTF_8));
+                        IOUtils.toString(pojoResource.adaptTo(InputStream.class), StandardCharsets.UTF_8),
+                        false);
             } else {
                 return classLoaderWriter
                         .getClassLoader()
@@ -412,7 +615,8 @@ public class SlingHTLMasterCompiler {
             if (sourceLastModifiedDateFromCache > classLastModifiedDate) {
                 return compileSource(
                         sourceIdentifier,
-                        IOUtils.toString(pojoResource.adaptTo(InputStream.class), StandardCharsets.UTF_8));
+                        IOUtils.toString(pojoResource.adaptTo(InputStream.class), StandardCharsets.UTF_8),
+                        false);
             } else {
                 return classLoaderWriter
                         .getClassLoader()
@@ -424,6 +628,220 @@ public class SlingHTLMasterCompiler {
     }
 
     // ---------------------------------- private -----------------------------------
+    private SightlyCompiledScript getCachedScript(String scriptName) {
+        CachedScript cachedScript = scriptCache.getScript(scriptName);
+        if (cachedScript != null && cachedScript.getCompiledScript() instanceof SightlyCompiledScript) {
+            return (SightlyCompiledScript) cachedScript.getCompiledScript();
+        }
+        return null;
+    }
+
+    private String generateJavaSource(
+            String scriptName, SourceIdentifier sourceIdentifier, Reader script, Set<String> globals)
+            throws ScriptException {
+        CompilationUnit compilationUnit = new CompilationUnit() {
+            @Override
+            public String getScriptName() {
+                return scriptName;
+            }
+
+            @Override
+            public Reader getScriptReader() {
+                return script;
+            }
+        };
+        SlingJavaImportsAnalyser importsAnalyser = new SlingJavaImportsAnalyser(resourceResolverFactory);
+        JavaClassBackendCompiler javaClassBackendCompiler = new JavaClassBackendCompiler(importsAnalyser);
+        CompilationResult result = globals == null
+                ? sightlyCompiler.compile(compilationUnit, javaClassBackendCompiler)
+                : sightlyCompiler.compile(
+                        compilationUnit, new GlobalShadowCheckBackendCompiler(javaClassBackendCompiler, globals));
+        if (!result.getWarnings().isEmpty()) {
+            for (CompilerMessage warning : result.getWarnings()) {
+                LOGGER.warn(
+                        "Script {} {}:{}: {}",
+                        warning.getScriptName(),
+                        warning.getLine(),
+                        warning.getColumn(),
+                        warning.getMessage());
+            }
+        }
+        if (!result.getErrors().isEmpty()) {
+            CompilerMessage error = result.getErrors().get(0);
+            throw new ScriptException(error.getMessage(), error.getScriptName(), error.getLine(), error.getColumn());
+        }
+        return javaClassBackendCompiler.build(sourceIdentifier);
+    }
+
+    private SightlyCompiledScript cacheRenderUnit(SightlyScriptEngine engine, String scriptName, Object renderUnit) {
+        if (renderUnit instanceof RenderUnit) {
+            SightlyCompiledScript compiledScript = new SightlyCompiledScript(engine, (RenderUnit) renderUnit);
+            scriptCache.putScript(new CachedScript() {
+                @Override
+                public String getScriptPath() {
+                    return scriptName;
+                }
+
+                @Override
+                public CompiledScript getCompiledScript() {
+                    return compiledScript;
+                }
+            });
+            return compiledScript;
+        } else {
+            throw new SightlyException("Expected a RenderUnit.");
+        }
+    }
+
+    /**
+     * Computes the hash identifying the Java class generated for an HTL script. Besides the script's name and source, the hash covers
+     * everything else that influences the generated code: the versions of the engine, of the HTL front-end and of the Java backend, the
+     * allowed expression options and the search paths.
+     */
+    String computeSourceHash(String scriptName, String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, sightlyEngineConfiguration.getEngineVersion());
+            for (String generatorVersion : generatorVersions) {
+                update(digest, generatorVersion);
+            }
+            Set<String> expressionOptions = sightlyEngineConfiguration.getAllowedExpressionOptions();
+            if (expressionOptions != null) {
+                for (String option : new TreeSet<>(expressionOptions)) {
+                    update(digest, option);
+                }
+            }
+            String[] searchPaths = resourceResolverFactory.getSearchPath();
+            if (searchPaths != null) {
+                for (String searchPath : searchPaths) {
+                    update(digest, searchPath);
+                }
+            }
+            update(digest, scriptName);
+            update(digest, source);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new SightlyException(e);
+        }
+    }
+
+    /**
+     * Tells if the classes persisted for the HTL scripts can be reused. Snapshot builds of the engine, of the HTL front-end or of the
+     * Java backend change without changing their versions, so the scripts are always compiled again with them.
+     */
+    private boolean canReusePersistedClasses() {
+        if (isSnapshot(sightlyEngineConfiguration.getEngineVersion())) {
+            return false;
+        }
+        for (String generatorVersion : generatorVersions) {
+            if (isSnapshot(generatorVersion)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSnapshot(String version) {
+        return version != null && version.toUpperCase(Locale.ROOT).contains("SNAPSHOT");
+    }
+
+    private static String getBundleVersion(Class<?> type) {
+        Bundle bundle = FrameworkUtil.getBundle(type);
+        return bundle == null ? null : bundle.getVersion().toString();
+    }
+
+    private void update(MessageDigest digest, String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Loads the render unit compiled before for an HTL script, if the class available in the {@link ClassLoaderWriter} was generated
+     * from a script with the same source hash. This allows unchanged scripts to skip the HTL and Java compilation after a restart,
+     * unless a snapshot build of the engine or of the HTL compiler is used.
+     *
+     * @return the render unit or {@code null} if the script has to be compiled
+     */
+    private Object loadPersistedRenderUnit(SourceIdentifier sourceIdentifier, String sourceHash) {
+        if (!canReusePersistedClasses()) {
+            return null;
+        }
+        String fqcn = sourceIdentifier.getFullyQualifiedClassName();
+        compilationLocks.lock(fqcn);
+        ClassLoaderWriter writer = getClassLoaderWriter(true);
+        try (InputStream is = writer.getInputStream(getSourceHashPath(fqcn))) {
+            if (is == null) {
+                return null;
+            }
+            if (!sourceHash.equals(IOUtils.toString(is, StandardCharsets.UTF_8))) {
+                return null;
+            }
+            Object renderUnit = sightlyEngineConfiguration.perTemplateClassLoaders()
+                    ? loadRenderUnit(writer, fqcn)
+                    : writer.getClassLoader()
+                            .loadClass(fqcn)
+                            .getDeclaredConstructor()
+                            .newInstance();
+            LOGGER.debug("Loaded persisted class {}.", fqcn);
+            return renderUnit;
+        } catch (IOException e) {
+            // the source hash was never written for this class
+            return null;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LOGGER.debug("Unable to load persisted class {}; the script will be recompiled.", fqcn, e);
+            return null;
+        } finally {
+            compilationLocks.unlock(fqcn);
+        }
+    }
+
+    private void writeSourceHash(SourceIdentifier sourceIdentifier, String sourceHash) {
+        if (sourceHash == null) {
+            return;
+        }
+        String fqcn = sourceIdentifier.getFullyQualifiedClassName();
+        try (OutputStream os = getClassLoaderWriter(true).getOutputStream(getSourceHashPath(fqcn))) {
+            if (os != null) {
+                IOUtils.write(sourceHash, os, StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to persist the source hash for class {}.", fqcn, e);
+        }
+    }
+
+    /**
+     * @param generatedSources {@code true} for the classes generated for HTL scripts, {@code false} for the Java Use-objects
+     * @return the {@link ClassLoaderWriter} storing the classes
+     */
+    private ClassLoaderWriter getClassLoaderWriter(boolean generatedSources) {
+        return generatedSources && renderUnitClassLoaderWriter != null ? renderUnitClassLoaderWriter : classLoaderWriter;
+    }
+
+    private Options getCompilerOptions(boolean generatedSources) {
+        return generatedSources && renderUnitOptions != null ? renderUnitOptions : options;
+    }
+
+    /**
+     * Loads the class generated for an HTL script through its own {@link RenderUnitClassLoader}, so that the class can be unloaded once
+     * the script is recompiled.
+     */
+    private Object loadRenderUnit(ClassLoaderWriter writer, String fqcn) throws ReflectiveOperationException {
+        RenderUnitClassLoader classLoader =
+                new RenderUnitClassLoader(dynamicClassLoaderManager.getDynamicClassLoader(), writer, fqcn);
+        Object renderUnit = classLoader.loadClass(fqcn).getDeclaredConstructor().newInstance();
+        LOGGER.debug(
+                "Loaded class {} through its own class loader; {} render unit class loaders are still in memory.",
+                fqcn,
+                RenderUnitClassLoader.getLiveClassLoaders());
+        return renderUnit;
+    }
+
+    private String getSourceHashPath(String fqcn) {
+        return "/" + fqcn.replace(".", "/") + SOURCE_HASH_EXTENSION;
+    }
+
     private String createErrorMsg(List<org.apache.sling.commons.compiler.CompilerMessage> errors) {
         final StringBuilder buffer = new StringBuilder();
         buffer.append("Compilation errors in ");
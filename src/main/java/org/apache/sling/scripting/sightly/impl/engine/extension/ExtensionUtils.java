@@ -18,12 +18,16 @@
  */
 package org.apache.sling.scripting.sightly.impl.engine.extension;
 
+import java.io.PrintWriter;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.apache.sling.api.SlingJakartaHttpServletRequest;
 import org.apache.sling.scripting.sightly.SightlyException;
 import org.apache.sling.scripting.sightly.extension.RuntimeExtension;
+import org.apache.sling.scripting.sightly.impl.engine.runtime.HTLOutputWriter;
+import org.apache.sling.scripting.sightly.impl.engine.runtime.RenderContextImpl;
+import org.apache.sling.scripting.sightly.render.RenderContext;
 
 /**
  * Helper class for {@link RuntimeExtension} implementations.
@@ -72,4 +76,23 @@ public class ExtensionUtils {
         }
         return originalRequestAttributes;
     }
+
+    /**
+     * Helper method for retrieving the writer through which an included script or servlet writes into the output of the current render
+     * unit. Closing the writer doesn't close the render unit's output.
+     *
+     * @param renderContext the render context
+     * @return the writer for the include or {@code null} if the render unit's output is not available, in which case the extension
+     * has to return its output
+     */
+    public static PrintWriter getOutput(RenderContext renderContext) {
+        if (renderContext instanceof RenderContextImpl) {
+            PrintWriter output = ((RenderContextImpl) renderContext).getOutput();
+            if (output instanceof HTLOutputWriter htlOutputWriter) {
+                return htlOutputWriter.getIncludeWriter();
+            }
+            return output;
+        }
+        return null;
+    }
 }
@@ -60,15 +60,21 @@ public class IncludeRuntimeExtension implements RuntimeExtension {
         String originalPath = runtimeObjectModel.toString(arguments[0]);
         Map<?, ?> options = (Map<?, ?>) arguments[1];
         String path = buildPath(originalPath, options);
-        StringWriter output = new StringWriter();
         final Bindings bindings = renderContext.getBindings();
         SlingJakartaHttpServletRequest request = BindingsUtils.getJakartaRequest(bindings);
         @SuppressWarnings("unchecked")
         Map<String, Object> originalAttributes = ExtensionUtils.setRequestAttributes(
                 request, (Map<String, Object>) options.remove(OPTION_REQUEST_ATTRIBUTES));
-        includeScript(bindings, path, new PrintWriter(output));
+        // the included script writes directly into the render unit's output, if available
+        PrintWriter out = ExtensionUtils.getOutput(renderContext);
+        StringWriter output = null;
+        if (out == null) {
+            output = new StringWriter();
+            out = new PrintWriter(output);
+        }
+        includeScript(bindings, path, out);
         ExtensionUtils.setRequestAttributes(request, originalAttributes);
-        return output.toString();
+        return output == null ? StringUtils.EMPTY : output.toString();
     }
 
     private String buildPath(String path, Map<?, ?> options) {
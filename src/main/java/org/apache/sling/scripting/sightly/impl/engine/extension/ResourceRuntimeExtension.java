@@ -79,8 +79,15 @@ public class ResourceRuntimeExtension implements RuntimeExtension {
         Map<String, Object> originalAttributes = ExtensionUtils.setRequestAttributes(
                 request, (Map<String, Object>) options.remove(OPTION_REQUEST_ATTRIBUTES));
         RuntimeObjectModel runtimeObjectModel = renderContext.getObjectModel();
-        StringWriter writer = new StringWriter();
-        PrintWriter printWriter = new PrintWriter(writer);
+        // the included resource is rendered directly into the render unit's output, if available, through a writer the dispatched
+        // request cannot close; an include that fails after having written part of its markup leaves that markup in the output, while
+        // the SightlyException thrown for the failure aborts the rendering of the including script
+        PrintWriter printWriter = ExtensionUtils.getOutput(renderContext);
+        StringWriter writer = null;
+        if (printWriter == null) {
+            writer = new StringWriter();
+            printWriter = new PrintWriter(writer);
+        }
         if (pathObj instanceof Resource includedResource) {
             RequestDispatcherOptions requestDispatcherOptions =
                     handleDispatcherOptions(request, new LinkedHashSet<>(), opts, runtimeObjectModel);
@@ -112,7 +119,7 @@ public class ResourceRuntimeExtension implements RuntimeExtension {
             }
         }
         ExtensionUtils.setRequestAttributes(request, originalAttributes);
-        return writer.toString();
+        return writer == null ? StringUtils.EMPTY : writer.toString();
     }
 
     private RequestDispatcherOptions handleDispatcherOptions(
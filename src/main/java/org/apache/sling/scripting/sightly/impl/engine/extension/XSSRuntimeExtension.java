@@ -74,10 +74,18 @@ public class XSSRuntimeExtension implements RuntimeExtension {
             LOG.warn("Expression context {} is invalid, expression will be replaced by the empty string", option);
             return "";
         }
+        if (markupContext == MarkupContext.NUMBER && isIntegral(original)) {
+            // same result as parsing the value's string representation, without the intermediate objects
+            return Long.toString(((Number) original).longValue());
+        }
         String text = renderContext.getObjectModel().toString(original);
         return applyXSSFilter(text, hint, markupContext);
     }
 
+    private static boolean isIntegral(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+    }
+
     private String applyXSSFilter(String text, Object hint, MarkupContext xssContext) {
         if (xssContext.equals(MarkupContext.ATTRIBUTE) && hint instanceof String) {
             String attributeName = (String) hint;
@@ -20,10 +20,15 @@ package org.apache.sling.scripting.sightly.impl.engine.extension.use;
 
 import javax.script.Bindings;
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import jakarta.servlet.ServletRequest;
 import org.apache.sling.api.SlingJakartaHttpServletRequest;
@@ -69,6 +74,14 @@ public class JavaUseProvider implements UseProvider {
 
     private static final String ADAPTABLE = "adaptable";
     private static final Logger LOG = LoggerFactory.getLogger(JavaUseProvider.class);
+    static final int MAX_MISSING_CLASSES = 1024;
+
+    /*
+     * the class loaders are replaced when bundles or compiled classes change, so the resolved classes are cached per class loader;
+     * the class loaders and the classes are weakly referenced, since they would otherwise be kept from being collected. The array is
+     * replaced when a class loader is added, so that looking the classes up doesn't need a lock.
+     */
+    private volatile ResolvedClasses[] resolvedClasses = new ResolvedClasses[0];
 
     @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
     private SlingHTLMasterCompiler slingHTLMasterCompiler;
@@ -94,6 +107,7 @@ public class JavaUseProvider implements UseProvider {
 
         try {
             Exception failure = null;
+            String missingClass = null;
             ClassLoader unitClassLoader = bundledUnitManager.getBundledRenderUnitClassloader(globalBindings);
             if (unitClassLoader != null) {
                 try {
@@ -106,12 +120,16 @@ public class JavaUseProvider implements UseProvider {
                             className = renderUnit.getClass().getPackage().getName() + "." + className;
                         }
                     }
-                    Class<?> clazz = unitClassLoader.loadClass(className);
-                    return loadObject(
-                            clazz,
-                            cls -> bundledUnitManager.getServiceForBundledRenderUnit(globalBindings, clazz),
-                            globalBindings,
-                            arguments);
+                    Class<?> clazz = resolveClass(unitClassLoader, className);
+                    if (clazz != null) {
+                        return loadObject(
+                                clazz,
+                                cls -> bundledUnitManager.getServiceForBundledRenderUnit(globalBindings, clazz),
+                                globalBindings,
+                                arguments);
+                    }
+                    // maybe the class will actually come from the repository
+                    missingClass = className;
                 } catch (Exception e) {
                     // maybe the class will actually come from the repository
                     failure = e;
@@ -128,9 +146,12 @@ public class JavaUseProvider implements UseProvider {
                     SlingScriptHelper slingScriptHelper = BindingsUtils.getHelper(globalBindings);
                     if (slingScriptHelper != null) {
                         try {
-                            Class<?> clazz =
-                                    slingHTLMasterCompiler.getClassLoader().loadClass(identifier);
-                            return loadObject(clazz, slingScriptHelper::getService, globalBindings, arguments);
+                            Class<?> clazz = resolveClass(slingHTLMasterCompiler.getClassLoader(), identifier);
+                            if (clazz != null) {
+                                return loadObject(clazz, slingScriptHelper::getService, globalBindings, arguments);
+                            }
+                            missingClass = identifier;
+                            failure = null;
                         } catch (Exception e) {
                             failure = e;
                         }
@@ -140,6 +161,9 @@ public class JavaUseProvider implements UseProvider {
             if (failure != null) {
                 return ProviderOutcome.failure(failure);
             }
+            if (missingClass != null) {
+                return ProviderOutcome.failure(new ClassNotFoundException(missingClass));
+            }
             return ProviderOutcome.failure();
         } catch (Exception e) {
             // any other exception is an error
@@ -149,6 +173,68 @@ public class JavaUseProvider implements UseProvider {
         }
     }
 
+    /**
+     * Loads the class {@code className} through {@code classLoader}, remembering the result - including a bounded number of the
+     * classes that cannot be found - for as long as the class loader is in use.
+     *
+     * @param classLoader the class loader
+     * @param className   the fully qualified name of the class
+     * @return the class, or {@code null} if the class loader cannot find it
+     */
+    @Nullable
+    Class<?> resolveClass(@NotNull ClassLoader classLoader, @NotNull String className) {
+        ResolvedClasses resolved = getResolvedClasses(classLoader);
+        WeakReference<Class<?>> reference = resolved.classes.get(className);
+        Class<?> clazz = reference == null ? null : reference.get();
+        if (clazz == null && !resolved.missingClasses.contains(className)) {
+            try {
+                clazz = classLoader.loadClass(className);
+                resolved.classes.put(className, new WeakReference<>(clazz));
+            } catch (ClassNotFoundException e) {
+                LOG.debug("Class {} cannot be loaded by {}.", className, classLoader);
+                // identifiers can be computed by expressions, so the number of remembered missing classes is bounded
+                if (resolved.missingClasses.size() < MAX_MISSING_CLASSES) {
+                    resolved.missingClasses.add(className);
+                }
+            }
+        }
+        return clazz;
+    }
+
+    private ResolvedClasses getResolvedClasses(@NotNull ClassLoader classLoader) {
+        ResolvedClasses resolved = findResolvedClasses(resolvedClasses, classLoader);
+        if (resolved != null) {
+            return resolved;
+        }
+        synchronized (this) {
+            ResolvedClasses[] current = resolvedClasses;
+            resolved = findResolvedClasses(current, classLoader);
+            if (resolved == null) {
+                // the entries of the collected class loaders are dropped when a new class loader is added
+                List<ResolvedClasses> inUse = new ArrayList<>(current.length + 1);
+                for (ResolvedClasses entry : current) {
+                    if (entry.classLoader.get() != null) {
+                        inUse.add(entry);
+                    }
+                }
+                resolved = new ResolvedClasses(classLoader);
+                inUse.add(resolved);
+                resolvedClasses = inUse.toArray(new ResolvedClasses[0]);
+            }
+            return resolved;
+        }
+    }
+
+    @Nullable
+    private static ResolvedClasses findResolvedClasses(ResolvedClasses[] entries, ClassLoader classLoader) {
+        for (ResolvedClasses entry : entries) {
+            if (entry.classLoader.get() == classLoader) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
     private ProviderOutcome loadObject(
             @NotNull Class<?> cls,
             @NotNull ServiceLoader serviceLoader,
@@ -287,4 +373,18 @@ public class JavaUseProvider implements UseProvider {
         @Nullable
         Object getService(Class<?> cls);
     }
+
+    /**
+     * The classes resolved through a class loader, and the names of the classes it cannot load.
+     */
+    private static final class ResolvedClasses {
+
+        private final WeakReference<ClassLoader> classLoader;
+        private final Map<String, WeakReference<Class<?>>> classes = new ConcurrentHashMap<>();
+        private final Set<String> missingClasses = ConcurrentHashMap.newKeySet();
+
+        private ResolvedClasses(ClassLoader classLoader) {
+            this.classLoader = new WeakReference<>(classLoader);
+        }
+    }
 }
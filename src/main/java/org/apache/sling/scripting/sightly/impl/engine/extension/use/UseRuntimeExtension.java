@@ -19,38 +19,80 @@
 package org.apache.sling.scripting.sightly.impl.engine.extension.use;
 
 import javax.script.Bindings;
+import javax.script.ScriptEngine;
 import javax.script.SimpleBindings;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.ListIterator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.SlingJakartaHttpServletRequest;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.apache.sling.api.scripting.SlingScriptHelper;
 import org.apache.sling.scripting.sightly.SightlyException;
 import org.apache.sling.scripting.sightly.extension.RuntimeExtension;
+import org.apache.sling.scripting.sightly.impl.engine.SightlyEngineConfiguration;
 import org.apache.sling.scripting.sightly.impl.engine.extension.ExtensionUtils;
+import org.apache.sling.scripting.sightly.impl.utils.BindingsUtils;
 import org.apache.sling.scripting.sightly.render.RenderContext;
 import org.apache.sling.scripting.sightly.render.RuntimeObjectModel;
 import org.apache.sling.scripting.sightly.use.ProviderOutcome;
 import org.apache.sling.scripting.sightly.use.UseProvider;
+import org.jetbrains.annotations.NotNull;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 
 /**
  * Runtime extension for the USE plugin
  */
 @Component(
-        service = RuntimeExtension.class,
-        property = {RuntimeExtension.NAME + "=" + RuntimeExtension.USE})
-public class UseRuntimeExtension implements RuntimeExtension {
+        service = {RuntimeExtension.class, ResourceChangeListener.class},
+        property = {
+            RuntimeExtension.NAME + "=" + RuntimeExtension.USE,
+            // listen to changes to all search paths
+            ResourceChangeListener.PATHS + "=.",
+            ResourceChangeListener.CHANGES + "=" + ResourceChangeListener.CHANGE_ADDED,
+            ResourceChangeListener.CHANGES + "=" + ResourceChangeListener.CHANGE_CHANGED,
+            ResourceChangeListener.CHANGES + "=" + ResourceChangeListener.CHANGE_REMOVED,
+        })
+public class UseRuntimeExtension implements RuntimeExtension, ResourceChangeListener, ExternalResourceChangeListener {
+
+    private static final int MAX_ROUTES = 10000;
+    private static final String REQUEST_USE_OBJECTS = UseRuntimeExtension.class.getName() + ".requestUseObjects";
+    private static final Object REQUEST_USE_OBJECTS_LOCK = new Object();
 
     private final Map<ServiceReference<UseProvider>, UseProvider> providersMap = new ConcurrentSkipListMap<>();
 
+    /**
+     * The providers, from the highest to the lowest ranking; the array is replaced whenever the providers change.
+     */
+    private volatile UseProvider[] providers = new UseProvider[0];
+
+    /**
+     * The providers which resolved the identifiers, by identifier and by calling script and resource type of the rendered resource. The
+     * routes are dropped when the providers or the resources from the search paths change, since a higher ranking provider might be
+     * able to resolve an identifier afterwards (e.g. after adding a script or a Java class to the repository).
+     */
+    private final Map<String, Map<String, UseProvider>> routes = new ConcurrentHashMap<>();
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+    private SightlyEngineConfiguration sightlyEngineConfiguration;
+
     @Override
     public Object call(final RenderContext renderContext, Object... arguments) {
         ExtensionUtils.checkArgumentCount(RuntimeExtension.USE, arguments, 2);
@@ -62,13 +104,69 @@ public class UseRuntimeExtension implements RuntimeExtension {
         @SuppressWarnings("unchecked")
         Map<String, Object> useArgumentsMap = runtimeObjectModel.toMap(arguments[1]);
         Bindings useArguments = new SimpleBindings(Collections.unmodifiableMap(useArgumentsMap));
-        ArrayList<UseProvider> providers = new ArrayList<>(providersMap.values());
-        ListIterator<UseProvider> iterator = providers.listIterator(providers.size());
-        while (iterator.hasPrevious()) {
-            UseProvider provider = iterator.previous();
+        Resource resource = BindingsUtils.getResource(renderContext.getBindings());
+        String resourceType = getResourceType(resource);
+        // the providers resolve relative identifiers from the calling script and from the resource type
+        String callingScript = getCallingScript(renderContext);
+        String route = callingScript + ":" + resourceType;
+        ConcurrentMap<List<Object>, Object> requestUseObjects = getRequestUseObjects(renderContext, identifier);
+        if (requestUseObjects == null) {
+            return provide(identifier, renderContext, useArguments, route);
+        }
+        // the calling script is part of the key, since it determines the resolved class and the bindings passed to Use.init
+        List<Object> key = Arrays.asList(
+                identifier,
+                callingScript,
+                resource == null ? null : resource.getPath(),
+                resourceType,
+                new HashMap<>(useArgumentsMap));
+        Object useObject = requestUseObjects.get(key);
+        if (useObject == null) {
+            useObject = provide(identifier, renderContext, useArguments, route);
+            if (useObject != null) {
+                Object sharedUseObject = requestUseObjects.putIfAbsent(key, useObject);
+                if (sharedUseObject != null) {
+                    // a parallel include of the request provided the Use-object first
+                    useObject = sharedUseObject;
+                }
+            }
+        }
+        return useObject;
+    }
+
+    @Override
+    public void onChange(@NotNull List<ResourceChange> changes) {
+        routes.clear();
+    }
+
+    private Object provide(String identifier, RenderContext renderContext, Bindings useArguments, String route) {
+        UseProvider[] currentProviders = providers;
+        Map<String, UseProvider> identifierRoutes = routes.get(identifier);
+        UseProvider routedProvider = identifierRoutes == null ? null : identifierRoutes.get(route);
+        if (routedProvider != null && !ArrayUtils.contains(currentProviders, routedProvider)) {
+            // the route was added by a call that was still running when the provider was unbound
+            identifierRoutes.remove(route, routedProvider);
+            routedProvider = null;
+        }
+        if (routedProvider != null) {
+            ProviderOutcome outcome = routedProvider.provide(identifier, renderContext, useArguments);
+            if (outcome.isSuccess()) {
+                return outcome.getResult();
+            } else if (outcome.getCause() != null) {
+                throw new SightlyException(
+                        "Identifier " + identifier + " cannot be correctly instantiated by the Use API",
+                        outcome.getCause());
+            }
+            identifierRoutes.remove(route, routedProvider);
+        }
+        for (UseProvider provider : currentProviders) {
+            if (provider == routedProvider) {
+                continue;
+            }
             ProviderOutcome outcome = provider.provide(identifier, renderContext, useArguments);
             Throwable failureCause;
             if (outcome.isSuccess()) {
+                addRoute(identifier, route, provider);
                 return outcome.getResult();
             } else if ((failureCause = outcome.getCause()) != null) {
                 throw new SightlyException(
@@ -78,6 +176,69 @@ public class UseRuntimeExtension implements RuntimeExtension {
         throw new SightlyException("No use provider could resolve identifier " + identifier);
     }
 
+    private void addRoute(String identifier, String route, UseProvider provider) {
+        // identifiers can be computed by expressions, so the number of routes is bounded
+        if (routes.size() < MAX_ROUTES) {
+            routes.computeIfAbsent(identifier, key -> new ConcurrentHashMap<>()).put(route, provider);
+        }
+    }
+
+    /**
+     * Provides the Use-objects shared by the scripts rendering the current request, if the Use-objects of {@code identifier} are
+     * configured to be request-scoped.
+     *
+     * @param renderContext the render context
+     * @param identifier    the Use-object identifier
+     * @return the request's Use-objects, by identifier, calling script, resource and arguments, or {@code null} if the Use-object cannot
+     * be shared
+     */
+    @SuppressWarnings("unchecked")
+    private ConcurrentMap<List<Object>, Object> getRequestUseObjects(RenderContext renderContext, String identifier) {
+        SightlyEngineConfiguration configuration = sightlyEngineConfiguration;
+        if (configuration == null || !configuration.getRequestScopedUseObjects().contains(identifier)) {
+            return null;
+        }
+        SlingJakartaHttpServletRequest request = BindingsUtils.getJakartaRequest(renderContext.getBindings());
+        if (request == null) {
+            return null;
+        }
+        Object useObjects = request.getAttribute(REQUEST_USE_OBJECTS);
+        if (!(useObjects instanceof ConcurrentMap)) {
+            // the includes of a request can be rendered in parallel, through different request wrappers, so the map is created under
+            // a lock shared by all the requests
+            synchronized (REQUEST_USE_OBJECTS_LOCK) {
+                useObjects = request.getAttribute(REQUEST_USE_OBJECTS);
+                if (!(useObjects instanceof ConcurrentMap)) {
+                    useObjects = new ConcurrentHashMap<List<Object>, Object>();
+                    request.setAttribute(REQUEST_USE_OBJECTS, useObjects);
+                }
+            }
+        }
+        return (ConcurrentMap<List<Object>, Object>) useObjects;
+    }
+
+    /**
+     * Provides the path of the script being rendered, determined like the name of the script to compile.
+     */
+    private static String getCallingScript(RenderContext renderContext) {
+        Bindings bindings = renderContext.getBindings();
+        if (bindings.get(ScriptEngine.FILENAME) instanceof String scriptName && !scriptName.isEmpty()) {
+            return scriptName;
+        }
+        SlingScriptHelper sling = BindingsUtils.getHelper(bindings);
+        if (sling != null && sling.getScript() != null) {
+            return sling.getScript().getScriptResource().getPath();
+        }
+        return StringUtils.EMPTY;
+    }
+
+    private static String getResourceType(Resource resource) {
+        if (resource == null || resource.getResourceType() == null) {
+            return StringUtils.EMPTY;
+        }
+        return resource.getResourceType();
+    }
+
     // OSGi
     // ################################################################################################################################
     @Reference(
@@ -86,10 +247,19 @@ public class UseRuntimeExtension implements RuntimeExtension {
             cardinality = ReferenceCardinality.MULTIPLE)
     private void bindUseProvider(ServiceReference<UseProvider> serviceReference, UseProvider provider) {
         providersMap.put(serviceReference, provider);
+        updateProviders();
     }
 
     @SuppressWarnings("unused")
     private void unbindUseProvider(ServiceReference<UseProvider> serviceReference) {
         providersMap.remove(serviceReference);
+        updateProviders();
+    }
+
+    private synchronized void updateProviders() {
+        List<UseProvider> rankedProviders = new ArrayList<>(providersMap.values());
+        Collections.reverse(rankedProviders);
+        providers = rankedProviders.toArray(new UseProvider[0]);
+        routes.clear();
     }
 }
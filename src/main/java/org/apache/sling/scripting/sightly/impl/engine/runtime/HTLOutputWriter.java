@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine.runtime;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * {@link PrintWriter} used as the output of HTL render units. The output is collected in a character buffer and written to the target
+ * writer in chunks of {@link #BUFFER_SIZE} characters, instead of passing every single write of the render unit to the target.
+ * <p>
+ * The buffers are pooled per thread, so that the nested renders of a request don't allocate new ones. Flushing the writer only writes
+ * the buffered output to the target: render units share this writer with the scripts they include, and a flush from an included script
+ * must not commit the response. Closing the writer writes the buffered output to the target and returns the buffer to the pool, without
+ * closing or flushing the target.
+ */
+public final class HTLOutputWriter extends PrintWriter {
+
+    static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_BUFFERS = 16;
+    private static final ThreadLocal<Deque<char[]>> BUFFERS = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private PrintWriter includeWriter;
+
+    private HTLOutputWriter(Writer target) {
+        super(new BufferedOutput(target));
+    }
+
+    /**
+     * Provides the writer to use for rendering into {@code target}.
+     *
+     * @param target the writer to which the output is written
+     * @return {@code target} if it's already an {@link HTLOutputWriter}, a new buffering writer otherwise
+     */
+    public static HTLOutputWriter forTarget(Writer target) {
+        if (target instanceof HTLOutputWriter) {
+            return (HTLOutputWriter) target;
+        }
+        return new HTLOutputWriter(target);
+    }
+
+    /**
+     * Provides the writer through which the scripts and servlets included by the render unit write into this writer. Included servlets
+     * commonly close their response's writer, which must not close the output of the including render unit, so closing the returned
+     * writer only flushes it.
+     *
+     * @return the writer for the render unit's includes
+     */
+    public PrintWriter getIncludeWriter() {
+        if (includeWriter == null) {
+            includeWriter = new PrintWriter(this) {
+                @Override
+                public void close() {
+                    flush();
+                }
+            };
+        }
+        return includeWriter;
+    }
+
+    private static char[] acquireBuffer() {
+        char[] buffer = BUFFERS.get().poll();
+        return buffer == null ? new char[BUFFER_SIZE] : buffer;
+    }
+
+    private static void releaseBuffer(char[] buffer) {
+        Deque<char[]> buffers = BUFFERS.get();
+        if (buffers.size() < MAX_POOLED_BUFFERS) {
+            buffers.push(buffer);
+        }
+    }
+
+    private static final class BufferedOutput extends Writer {
+
+        private final Writer target;
+        private char[] buffer;
+        private int count;
+
+        private BufferedOutput(Writer target) {
+            this.target = target;
+            this.buffer = acquireBuffer();
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            ensureOpen();
+            if (count == buffer.length) {
+                drain();
+            }
+            buffer[count++] = (char) c;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            ensureOpen();
+            if (length >= buffer.length) {
+                drain();
+                target.write(chars, offset, length);
+                return;
+            }
+            if (length > buffer.length - count) {
+                drain();
+            }
+            System.arraycopy(chars, offset, buffer, count, length);
+            count += length;
+        }
+
+        @Override
+        public void write(String string, int offset, int length) throws IOException {
+            ensureOpen();
+            while (length > 0) {
+                int chunk = Math.min(buffer.length - count, length);
+                string.getChars(offset, offset + chunk, buffer, count);
+                count += chunk;
+                offset += chunk;
+                length -= chunk;
+                if (count == buffer.length) {
+                    drain();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ensureOpen();
+            drain();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (buffer != null) {
+                try {
+                    drain();
+                } finally {
+                    releaseBuffer(buffer);
+                    buffer = null;
+                }
+            }
+        }
+
+        private void drain() throws IOException {
+            if (count > 0) {
+                int length = count;
+                count = 0;
+                target.write(buffer, 0, length);
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (buffer == null) {
+                throw new IOException("The HTL output writer was closed.");
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine.runtime;
+
+import java.lang.reflect.Array;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Collection views used by the object model instead of copying arrays into new collections.
+ */
+final class LazyCollections {
+
+    private LazyCollections() {
+        // to hide public ctor
+    }
+
+    /**
+     * Provides a read-only list view of an array, reading the elements only when accessed. Primitive values are boxed on access.
+     *
+     * @param array the array
+     * @return the list view
+     */
+    static List<Object> ofArray(Object array) {
+        return new ArrayView(array);
+    }
+
+    private static final class ArrayView extends AbstractList<Object> implements RandomAccess {
+
+        private final Object array;
+        private final int length;
+
+        private ArrayView(Object array) {
+            this.array = array;
+            this.length = Array.getLength(array);
+        }
+
+        @Override
+        public Object get(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + length);
+            }
+            return Array.get(array, index);
+        }
+
+        @Override
+        public int size() {
+            return length;
+        }
+    }
+}
@@ -21,7 +21,8 @@ package org.apache.sling.scripting.sightly.impl.engine.runtime;
 import javax.script.Bindings;
 import javax.script.ScriptContext;
 
-import java.util.Map;
+import java.io.PrintWriter;
+import java.util.Set;
 
 import org.apache.sling.scripting.sightly.SightlyException;
 import org.apache.sling.scripting.sightly.extension.RuntimeExtension;
@@ -36,18 +37,43 @@ import org.apache.sling.scripting.sightly.render.RuntimeObjectModel;
  */
 public class RenderContextImpl implements RenderContext {
 
+    /**
+     * The runtime extensions that only compute a value. Any other extension, together with the Use-objects it calls, may write to the
+     * response directly, so the buffered output of the render unit has to reach the response before such an extension is called.
+     */
+    private static final Set<String> OUTPUT_NEUTRAL_EXTENSIONS = Set.of(
+            RuntimeExtension.XSS,
+            RuntimeExtension.I18N,
+            RuntimeExtension.FORMAT,
+            RuntimeExtension.JOIN,
+            RuntimeExtension.URI_MANIPULATION);
+
     private final AbstractRuntimeObjectModel runtimeModel;
 
     private final Bindings bindings;
     private final ExtensionRegistryService extensionRegistryService;
+    private final PrintWriter output;
 
     public RenderContextImpl(
             SightlyEngineConfiguration configuration,
             ExtensionRegistryService extensionRegistryService,
             ScriptContext scriptContext) {
+        this(
+                extensionRegistryService,
+                scriptContext,
+                null,
+                new SlingRuntimeObjectModel(configuration.legacyBooleanCasting()));
+    }
+
+    public RenderContextImpl(
+            ExtensionRegistryService extensionRegistryService,
+            ScriptContext scriptContext,
+            PrintWriter output,
+            AbstractRuntimeObjectModel runtimeModel) {
         this.extensionRegistryService = extensionRegistryService;
         this.bindings = scriptContext.getBindings(ScriptContext.ENGINE_SCOPE);
-        runtimeModel = new SlingRuntimeObjectModel(configuration.legacyBooleanCasting());
+        this.output = output;
+        this.runtimeModel = runtimeModel;
     }
 
     @Override
@@ -64,13 +90,25 @@ public class RenderContextImpl implements RenderContext {
         return bindings;
     }
 
+    /**
+     * Provides the writer the render unit renders into, which runtime extensions can use to write their output directly, instead of
+     * returning it.
+     *
+     * @return the output writer or {@code null} if the render unit's output is not known
+     */
+    public PrintWriter getOutput() {
+        return output;
+    }
+
     @Override
     public Object call(String functionName, Object... arguments) {
-        Map<String, RuntimeExtension> extensions = extensionRegistryService.extensions();
-        RuntimeExtension extension = extensions.get(functionName);
+        RuntimeExtension extension = extensionRegistryService.getExtension(functionName);
         if (extension == null) {
             throw new SightlyException("Runtime extension is not available: " + functionName);
         }
+        if (output instanceof HTLOutputWriter && !OUTPUT_NEUTRAL_EXTENSIONS.contains(functionName)) {
+            output.flush();
+        }
         return extension.call(this, arguments);
     }
 }
@@ -18,22 +18,105 @@
  */
 package org.apache.sling.scripting.sightly.impl.engine.runtime;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.apache.sling.api.SlingJakartaHttpServletRequest;
 import org.apache.sling.api.adapter.Adaptable;
 import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.scripting.sightly.Record;
+import org.apache.sling.scripting.sightly.SightlyException;
 import org.apache.sling.scripting.sightly.impl.engine.SightlyEngineConfiguration;
 import org.apache.sling.scripting.sightly.render.AbstractRuntimeObjectModel;
 
 public class SlingRuntimeObjectModel extends AbstractRuntimeObjectModel {
 
+    private static final String REQUEST_ATTRIBUTE = SlingRuntimeObjectModel.class.getName();
+    private static final int MAX_CACHED_PROPERTIES = 256;
+    private static final int MAX_CACHED_VALUE_MAPS = 1024;
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * Property accessors per class: a {@link MethodHandle} for the getter, {@link #MISSING_ACCESSOR} or {@link #UNSUPPORTED_ACCESSOR}.
+     * The accessors are stored with the class itself; since the values are only JDK objects, they never reference this bundle's class
+     * loader, which would otherwise be kept from being collected through the values stored with the JDK and model classes.
+     */
+    private static final ClassValue<Map<String, Object>> PROPERTY_ACCESSORS = new ClassValue<>() {
+        @Override
+        protected Map<String, Object> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    /**
+     * The object has no getter for the property.
+     */
+    private static final Object MISSING_ACCESSOR = new Object();
+
+    /**
+     * The property has to be resolved through the reflective lookup.
+     */
+    private static final Object UNSUPPORTED_ACCESSOR = new Object();
+
+    /**
+     * Classes declaring a {@code toString} method whose result is never empty, {@code true} or {@code false}, such as
+     * {@code java.lang.Object@1b6d3586}, {@code [1, 2]} or {@code {a=b}}.
+     */
+    private static final Set<Class<?>> STANDARD_TO_STRING_DECLARING_CLASSES = Set.of(
+            Object.class,
+            AbstractCollection.class,
+            AbstractMap.class,
+            Optional.class,
+            ConcurrentHashMap.class,
+            CopyOnWriteArrayList.class,
+            Vector.class);
+
+    /**
+     * Tells if the legacy boolean casting can skip converting an object to a string, because its class uses one of the standard
+     * {@code toString} implementations. Collections in particular would otherwise be rendered entirely just to be tested.
+     */
+    private static final ClassValue<Boolean> HAS_STANDARD_TO_STRING = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return STANDARD_TO_STRING_DECLARING_CLASSES.contains(
+                        type.getMethod("toString").getDeclaringClass());
+            } catch (NoSuchMethodException | SecurityException e) {
+                return false;
+            }
+        }
+    };
+
     private final boolean legacyToBoolean;
     private static final String EMPTY_STRING = "";
 
+    /**
+     * The {@link ValueMap} adaptations of the {@link Adaptable} objects whose properties were read, by object identity. A {@code null}
+     * value means that the object cannot be adapted. The adaptations are kept for a single render only, see
+     * {@link #releaseValueMaps()}, since the resources can change between the renders of a request.
+     */
+    private final Map<Adaptable, ValueMap> valueMaps = new IdentityHashMap<>();
+
+    private long reusedValueMaps;
+
     SlingRuntimeObjectModel() {
         this(SightlyEngineConfiguration.LEGACY_BOOLEAN_CASTING_DEFAULT);
     }
@@ -42,6 +125,24 @@ public class SlingRuntimeObjectModel extends AbstractRuntimeObjectModel {
         this.legacyToBoolean = legacyToBoolean;
     }
 
+    /**
+     * Provides the object model shared by all the HTL scripts rendered for a request, creating it on first use. The model is stored as
+     * a request attribute, so that the renders of included scripts find the model of the including script.
+     *
+     * @param request         the request
+     * @param legacyToBoolean whether the legacy boolean casting should be used
+     * @return the request's object model
+     */
+    public static SlingRuntimeObjectModel forRequest(SlingJakartaHttpServletRequest request, boolean legacyToBoolean) {
+        Object attribute = request.getAttribute(REQUEST_ATTRIBUTE);
+        if (attribute instanceof SlingRuntimeObjectModel model && model.legacyToBoolean == legacyToBoolean) {
+            return model;
+        }
+        SlingRuntimeObjectModel model = new SlingRuntimeObjectModel(legacyToBoolean);
+        request.setAttribute(REQUEST_ATTRIBUTE, model);
+        return model;
+    }
+
     @SuppressWarnings({"rawtypes", "unchecked"})
     @Override
     public boolean toBoolean(Object object) {
@@ -54,14 +155,16 @@ public class SlingRuntimeObjectModel extends AbstractRuntimeObjectModel {
                 return number.doubleValue() != 0.0;
             }
 
-            String s = object.toString();
-            if (s != null) {
-                s = s.trim();
-            }
-            if (EMPTY_STRING.equals(s)) {
-                return false;
-            } else if ("true".equalsIgnoreCase(s) || "false".equalsIgnoreCase(s)) {
-                return Boolean.parseBoolean(s);
+            if (!HAS_STANDARD_TO_STRING.get(object.getClass())) {
+                String s = object.toString();
+                if (s != null) {
+                    s = s.trim();
+                }
+                if (EMPTY_STRING.equals(s)) {
+                    return false;
+                } else if ("true".equalsIgnoreCase(s) || "false".equalsIgnoreCase(s)) {
+                    return Boolean.parseBoolean(s);
+                }
             }
 
             if (object instanceof Collection collection) {
@@ -93,14 +196,32 @@ public class SlingRuntimeObjectModel extends AbstractRuntimeObjectModel {
         return super.toBoolean(object);
     }
 
+    /**
+     * Converts arrays of primitives without copying their elements, by wrapping them in a list view. Iterators and iterables are still
+     * copied: the code generated for {@code data-sly-list} asks for the collection's size before iterating it, which would read all the
+     * elements of a lazy view anyway.
+     */
+    @Override
+    public Collection<Object> toCollection(Object object) {
+        if (object != null && object.getClass().isArray() && !(object instanceof Object[])) {
+            return LazyCollections.ofArray(object);
+        }
+        return super.toCollection(object);
+    }
+
     @Override
     protected Object getProperty(Object target, Object propertyObj) {
         if (target == null || propertyObj == null) {
             return null;
         }
-        Object result = super.getProperty(target, propertyObj);
+        Object result;
+        if (propertyObj instanceof String property && !property.isEmpty() && isPlainObject(target)) {
+            result = getPlainObjectProperty(target, property);
+        } else {
+            result = super.getProperty(target, propertyObj);
+        }
         if (result == null && target instanceof Adaptable adaptable) {
-            ValueMap valueMap = adaptable.adaptTo(ValueMap.class);
+            ValueMap valueMap = getValueMap(adaptable);
             if (valueMap != null) {
                 String property = toString(propertyObj);
                 result = valueMap.get(property);
@@ -108,4 +229,163 @@ public class SlingRuntimeObjectModel extends AbstractRuntimeObjectModel {
         }
         return result;
     }
+
+    /**
+     * @return the number of {@link Adaptable#adaptTo(Class)} calls saved by reusing the {@link ValueMap} adaptations
+     */
+    public synchronized long getReusedValueMaps() {
+        return reusedValueMaps;
+    }
+
+    /**
+     * Forgets the {@link ValueMap} adaptations. Called when an HTL render starts and ends, so that the adaptations are reused only
+     * within a render, and a render doesn't read the values of a resource as they were before a previous render or an included script
+     * modified it.
+     */
+    public synchronized void releaseValueMaps() {
+        valueMaps.clear();
+    }
+
+    /**
+     * Adapts an object to a {@link ValueMap}, reusing the adaptation for the object's subsequent property reads. Since the adaptations
+     * are released after each render, they are strongly referenced.
+     */
+    private ValueMap getValueMap(Adaptable adaptable) {
+        synchronized (this) {
+            ValueMap valueMap = valueMaps.get(adaptable);
+            if (valueMap != null || valueMaps.containsKey(adaptable)) {
+                reusedValueMaps++;
+                return valueMap;
+            }
+        }
+        ValueMap valueMap = adaptable.adaptTo(ValueMap.class);
+        synchronized (this) {
+            if (valueMaps.size() == MAX_CACHED_VALUE_MAPS) {
+                // start over, so that the objects read later in the render are cached as well
+                valueMaps.clear();
+            }
+            valueMaps.put(adaptable, valueMap);
+        }
+        return valueMap;
+    }
+
+    /**
+     * Resolves a property of an object through a cached accessor. The result is the same as the one of the reflective lookup of
+     * {@link AbstractRuntimeObjectModel}, which is used for all the properties the cache cannot handle.
+     */
+    private Object getPlainObjectProperty(Object target, String property) {
+        Object accessor = getPropertyAccessor(target.getClass(), property);
+        if (accessor == MISSING_ACCESSOR) {
+            return null;
+        }
+        if (accessor instanceof MethodHandle getter) {
+            try {
+                return (Object) getter.invokeExact(target);
+            } catch (Throwable t) { // NOSONAR - the getter's failures are reported like the reflective lookup reports them
+                throw new SightlyException(t);
+            }
+        }
+        return super.getProperty(target, property);
+    }
+
+    /**
+     * Objects for which the properties are resolved only through their public getters and fields.
+     */
+    private static boolean isPlainObject(Object target) {
+        return !(target instanceof Map
+                || target instanceof List
+                || target instanceof Record
+                || target instanceof Optional
+                || target instanceof Enum
+                || target.getClass().isArray());
+    }
+
+    private static Object getPropertyAccessor(Class<?> type, String property) {
+        Map<String, Object> accessors = PROPERTY_ACCESSORS.get(type);
+        Object accessor = accessors.get(property);
+        if (accessor == null) {
+            accessor = createPropertyAccessor(type, property);
+            // property names can be computed by expressions, so the number of cached accessors is bounded
+            if (accessors.size() < MAX_CACHED_PROPERTIES) {
+                accessors.putIfAbsent(property, accessor);
+            }
+        }
+        return accessor;
+    }
+
+    private static Object createPropertyAccessor(Class<?> type, String property) {
+        try {
+            type.getField(property);
+            // public fields are resolved when a getter returns null, which the reflective lookup handles
+            return UNSUPPORTED_ACCESSOR;
+        } catch (NoSuchFieldException e) {
+            // no field that would have to be checked
+        } catch (SecurityException e) {
+            return UNSUPPORTED_ACCESSOR;
+        }
+        Method getter = findGetter(type, property);
+        if (getter == null) {
+            return MISSING_ACCESSOR;
+        }
+        Method accessibleGetter = findPublicDeclaration(getter);
+        if (accessibleGetter == null) {
+            return UNSUPPORTED_ACCESSOR;
+        }
+        try {
+            return MethodHandles.publicLookup().unreflect(accessibleGetter).asType(GETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            return UNSUPPORTED_ACCESSOR;
+        }
+    }
+
+    /**
+     * Finds the getter for a property in the same way as {@link AbstractRuntimeObjectModel}: the first public method without parameters
+     * named after the property, or after the property with the {@code get} or {@code is} prefix. Methods declared by {@link Object},
+     * except {@link Object#toString()}, are not allowed.
+     */
+    private static Method findGetter(Class<?> type, String property) {
+        String capitalized = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        String getterName = "get" + capitalized;
+        String isName = "is" + capitalized;
+        for (Method method : type.getMethods()) {
+            if (method.getParameterCount() == 0) {
+                String name = method.getName();
+                if (property.equals(name) || getterName.equals(name) || isName.equals(name)) {
+                    if (method.getDeclaringClass() != Object.class || "toString".equals(name)) {
+                        return method;
+                    }
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds a declaration of {@code method} in a public class or interface, which can be invoked on instances of non-public classes.
+     */
+    private static Method findPublicDeclaration(Method method) {
+        if (Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+            return method;
+        }
+        Deque<Class<?>> types = new ArrayDeque<>();
+        types.add(method.getDeclaringClass());
+        while (!types.isEmpty()) {
+            Class<?> type = types.poll();
+            if (Modifier.isPublic(type.getModifiers())) {
+                try {
+                    return type.getMethod(method.getName());
+                } catch (NoSuchMethodException e) {
+                    continue;
+                }
+            }
+            if (type.getSuperclass() != null) {
+                types.add(type.getSuperclass());
+            }
+            for (Class<?> implemented : type.getInterfaces()) {
+                types.add(implemented);
+            }
+        }
+        return null;
+    }
 }
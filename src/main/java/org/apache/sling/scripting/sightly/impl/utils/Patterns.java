@@ -41,4 +41,56 @@ public final class Patterns {
      */
     public static final Pattern JAVA_CLASS_NAME =
             Pattern.compile("(" + JAVA_IDENTIFIER_REGEX + "\\.{1})*(" + JAVA_SIMPLE_CLASS_NAME_REGEX + ")");
+
+    private static final String PACKAGE_KEYWORD = "package";
+
+    /**
+     * Checks if a Java source code declares a package. The source code is scanned only up to its first token that's not part of a
+     * comment; if that token is the {@code package} keyword, the statement it starts is matched against {@link
+     * #JAVA_PACKAGE_DECLARATION}.
+     *
+     * @param sourceCode the Java source code
+     * @return {@code true} if the source code starts with a package declaration, {@code false} otherwise
+     */
+    public static boolean hasJavaPackageDeclaration(CharSequence sourceCode) {
+        int length = sourceCode.length();
+        int index = 0;
+        while (index < length) {
+            char c = sourceCode.charAt(index);
+            if (Character.isWhitespace(c) || c == '\uFEFF') {
+                index++;
+            } else if (c == '/' && index + 1 < length && sourceCode.charAt(index + 1) == '/') {
+                index += 2;
+                while (index < length && sourceCode.charAt(index) != '\n' && sourceCode.charAt(index) != '\r') {
+                    index++;
+                }
+            } else if (c == '/' && index + 1 < length && sourceCode.charAt(index + 1) == '*') {
+                index += 2;
+                while (index + 1 < length && !(sourceCode.charAt(index) == '*' && sourceCode.charAt(index + 1) == '/')) {
+                    index++;
+                }
+                if (index + 1 >= length) {
+                    // unterminated comment
+                    return false;
+                }
+                index += 2;
+            } else {
+                break;
+            }
+        }
+        int keywordEnd = index + PACKAGE_KEYWORD.length();
+        if (keywordEnd >= length
+                || !PACKAGE_KEYWORD.contentEquals(sourceCode.subSequence(index, keywordEnd))
+                || !Character.isWhitespace(sourceCode.charAt(keywordEnd))) {
+            return false;
+        }
+        for (int end = keywordEnd; end < length; end++) {
+            if (sourceCode.charAt(end) == ';') {
+                return JAVA_PACKAGE_DECLARATION
+                        .matcher(sourceCode.subSequence(index, end + 1))
+                        .matches();
+            }
+        }
+        return false;
+    }
 }
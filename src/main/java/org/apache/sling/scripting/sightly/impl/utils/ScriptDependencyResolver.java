@@ -18,6 +18,7 @@
  */
 package org.apache.sling.scripting.sightly.impl.utils;
 
+import java.util.Arrays;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.List;
@@ -26,8 +27,11 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingJakartaHttpServletRequest;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
 import org.apache.sling.api.resource.observation.ResourceChange;
 import org.apache.sling.api.resource.observation.ResourceChangeListener;
@@ -70,17 +74,20 @@ public class ScriptDependencyResolver
     @Reference
     private ScriptingResourceResolverProvider scriptingResourceResolverProvider;
 
-    // not used, however we want this component to restart if the RRF is reconfigured
+    // used for reading the changed resources; we also want this component to restart if the RRF is reconfigured
     @Reference
     private ResourceResolverFactory resourceResolverFactory;
 
-    private Map<String, String> resolutionCache = new ConcurrentHashMap<>();
+    // keyed by resource type and script identifier; both can contain any character, so the key isn't a concatenation
+    private Map<List<String>, String> resolutionCache = new ConcurrentHashMap<>();
 
     private ServiceRegistration<ResourceChangeListener> resourceChangeListenerServiceRegistration;
 
     private boolean cacheEnabled = false;
 
     private static final String NOT_FOUND_MARKER = "#NOT_FOUND#";
+    private static final String JCR_CONTENT = "/jcr:content";
+    private static final String NT_FILE = "nt:file";
 
     @Activate
     private void activate(ComponentContext componentContext) {
@@ -121,7 +128,7 @@ public class ScriptDependencyResolver
         if (!cacheEnabled) {
             return internalResolveScript(jakartaRequest, renderContext, scriptIdentifier);
         }
-        String cacheKey = jakartaRequest.getResource().getResourceType() + ":" + scriptIdentifier;
+        List<String> cacheKey = Arrays.asList(jakartaRequest.getResource().getResourceType(), scriptIdentifier);
         String scriptPath = resolutionCache.computeIfAbsent(cacheKey, t -> {
             Resource r = internalResolveScript(jakartaRequest, renderContext, scriptIdentifier);
             if (r == null) {
@@ -157,8 +164,73 @@ public class ScriptDependencyResolver
 
     @Override
     public void onChange(@NotNull List<ResourceChange> changes) {
-        // we won't be specific about the changes; wipe the whole cache
-        resolutionCache.clear();
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(null)) {
+            for (ResourceChange change : changes) {
+                if (!invalidate(resolver, change)) {
+                    // the change might affect the resolution of any script (e.g. a sling:resourceSuperType change);
+                    // wipe the whole cache
+                    resolutionCache.clear();
+                    return;
+                }
+            }
+        } catch (LoginException e) {
+            // the changed resources cannot be read; wipe the whole cache
+            resolutionCache.clear();
+        }
+    }
+
+    /**
+     * Removes the cache entries affected by a change to a file. Changing a file's content doesn't change how scripts are resolved,
+     * whereas adding or removing a file only affects the identifiers with the same name and the identifiers resolved to the file.
+     * Whether a resource is a file is determined from its resource type; a removed resource cannot be read anymore, so it's only known
+     * to be a file if scripts were resolved to it.
+     *
+     * @param resolver a resource resolver for reading the changed resources
+     * @param change   the change
+     * @return {@code true} if the affected entries were removed, {@code false} if the change's impact cannot be determined
+     */
+    private boolean invalidate(ResourceResolver resolver, ResourceChange change) {
+        String path = change.getPath();
+        ResourceChange.ChangeType type = change.getType();
+        if (path == null || type == null) {
+            return false;
+        }
+        if (path.endsWith(JCR_CONTENT)) {
+            path = path.substring(0, path.length() - JCR_CONTENT.length());
+        }
+        final String changedPath = path;
+        final String descendantsPath = path + "/";
+        switch (type) {
+            case CHANGED:
+                return isFile(resolver, changedPath);
+            case ADDED:
+                if (!isFile(resolver, changedPath)) {
+                    return false;
+                }
+                String name = ResourceUtil.getName(changedPath);
+                resolutionCache
+                        .entrySet()
+                        .removeIf(entry -> changedPath.equals(entry.getValue())
+                                || name.equals(getIdentifierName(entry.getKey().get(1))));
+                return true;
+            case REMOVED:
+                boolean resolvedFile = resolutionCache.containsValue(changedPath);
+                resolutionCache
+                        .values()
+                        .removeIf(value -> changedPath.equals(value) || value.startsWith(descendantsPath));
+                return resolvedFile;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isFile(ResourceResolver resolver, String path) {
+        Resource resource = resolver.getResource(path);
+        return resource != null && NT_FILE.equals(resource.getResourceType());
+    }
+
+    private static String getIdentifierName(String identifier) {
+        return identifier.substring(identifier.lastIndexOf('/') + 1);
     }
 
     @Override
@@ -30,6 +30,7 @@ import org.osgi.framework.ServiceRegistration;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.mock;
 
 public class ExtensionRegistryServiceTest {
@@ -80,4 +81,42 @@ public class ExtensionRegistryServiceTest {
         registration1.unregister();
         assertEquals(0, registryService.extensions().size());
     }
+
+    @Test
+    public void testGetExtension() {
+        ExtensionRegistryService registryService = slingContext.getService(ExtensionRegistryService.class);
+        assertNull(registryService.getExtension(RuntimeExtension.XSS));
+        assertNull(registryService.getExtension("test"));
+
+        RuntimeExtension xss = mock(RuntimeExtension.class);
+        ServiceRegistration<RuntimeExtension> xssRegistration = slingContext
+                .bundleContext()
+                .registerService(RuntimeExtension.class, xss, new Hashtable<String, Object>() {
+                    private static final long serialVersionUID = 1L;
+
+                    {
+                        put(RuntimeExtension.NAME, RuntimeExtension.XSS);
+                    }
+                });
+        RuntimeExtension test = mock(RuntimeExtension.class);
+        slingContext
+                .bundleContext()
+                .registerService(RuntimeExtension.class, test, new Hashtable<String, Object>() {
+                    private static final long serialVersionUID = 1L;
+
+                    {
+                        put(RuntimeExtension.NAME, "test");
+                    }
+                });
+
+        assertEquals(xss, registryService.getExtension(RuntimeExtension.XSS));
+        // names which are not the constants' instances are looked up in the mapping
+        assertEquals(xss, registryService.getExtension(new StringBuilder("xs").append('s').toString()));
+        assertEquals(test, registryService.getExtension("test"));
+        assertNull(registryService.getExtension(RuntimeExtension.I18N));
+
+        xssRegistration.unregister();
+        assertNull(registryService.getExtension(RuntimeExtension.XSS));
+        assertEquals(test, registryService.getExtension("test"));
+    }
 }
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine;
+
+import javax.script.Bindings;
+import javax.script.SimpleBindings;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.api.scripting.SlingBindings;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SlingBindingsViewTest {
+
+    @Test
+    public void testReadThrough() {
+        AtomicInteger reads = new AtomicInteger();
+        Bindings bindings = new SimpleBindings() {
+            @Override
+            public Object get(Object key) {
+                reads.incrementAndGet();
+                return super.get(key);
+            }
+        };
+        bindings.put("a", "aValue");
+        bindings.put("b", "bValue");
+        SlingBindings view = new SlingBindingsView(bindings);
+        // only the request and response objects are read when the view is created
+        int initialReads = reads.get();
+        assertEquals("aValue", view.get("a"));
+        assertEquals(initialReads + 1, reads.get());
+        assertTrue(view.containsKey("b"));
+        assertFalse(view.containsKey("c"));
+        assertNull(view.get("c"));
+        assertNull(view.get(""));
+        assertNull(view.get(null));
+        assertEquals(2, view.size());
+
+        // later changes of the underlying bindings are visible
+        bindings.put("c", "cValue");
+        assertEquals("cValue", view.get("c"));
+        assertEquals(3, view.size());
+    }
+
+    @Test
+    public void testWritesDoNotChangeTheUnderlyingBindings() {
+        Bindings bindings = new SimpleBindings();
+        bindings.put("a", "aValue");
+        bindings.put("b", "bValue");
+        SlingBindings view = new SlingBindingsView(bindings);
+
+        assertEquals("aValue", view.put("a", "otherValue"));
+        assertNull(view.put("c", "cValue"));
+        assertEquals("bValue", view.remove("b"));
+        assertNull(view.remove("d"));
+
+        assertEquals("otherValue", view.get("a"));
+        assertEquals("cValue", view.get("c"));
+        assertNull(view.get("b"));
+        assertFalse(view.containsKey("b"));
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("a", "otherValue");
+        expected.put("c", "cValue");
+        assertEquals(expected, new HashMap<>(view));
+        assertEquals(expected.keySet(), view.keySet());
+        assertEquals(2, view.size());
+
+        assertEquals("aValue", bindings.get("a"));
+        assertEquals("bValue", bindings.get("b"));
+        assertFalse(bindings.containsKey("c"));
+
+        view.put("b", "newValue");
+        assertEquals("newValue", view.get("b"));
+        view.clear();
+        assertTrue(view.isEmpty());
+        assertNull(view.get("a"));
+        assertEquals(2, bindings.size());
+    }
+
+    @Test
+    public void testDefaultMapMethodsReadThrough() {
+        Bindings bindings = new SimpleBindings();
+        bindings.put("a", "aValue");
+        bindings.put("b", "bValue");
+        bindings.put("c", "cValue");
+        bindings.put("d", "dValue");
+        SlingBindings view = new SlingBindingsView(bindings);
+
+        assertEquals("aValue", view.computeIfAbsent("a", key -> "otherValue"));
+        assertEquals("bValue!", view.computeIfPresent("b", (key, value) -> value + "!"));
+        assertEquals("cValue!", view.merge("c", "!", (value, suffix) -> value + (String) suffix));
+        assertEquals("dValue", view.replace("d", "newValue"));
+        assertNull(view.replace("e", "eValue"));
+        assertFalse(view.containsKey("e"));
+        assertFalse(view.remove("a", "otherValue"));
+        assertTrue(view.remove("a", "aValue"));
+        assertFalse(view.containsKey("a"));
+        assertNull(view.compute("b", (key, value) -> null));
+        assertFalse(view.containsKey("b"));
+
+        view.replaceAll((key, value) -> key);
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("c", "c");
+        expected.put("d", "d");
+        assertEquals(expected, new HashMap<>(view));
+
+        assertEquals("cValue", bindings.get("c"));
+        assertEquals(4, bindings.size());
+    }
+}
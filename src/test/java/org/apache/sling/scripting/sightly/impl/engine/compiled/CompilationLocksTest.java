@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine.compiled;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CompilationLocksTest {
+
+    private static final int THREADS = 64;
+    private static final int ITERATIONS = 500;
+    private static final int KEYS = 8;
+
+    @Test
+    public void testReentrantLocksAreRemovedWhenReleased() {
+        CompilationLocks locks = new CompilationLocks();
+        locks.lock("a.b.C");
+        locks.lock("a.b.C");
+        locks.lock("a.b.D");
+        assertEquals(2, locks.size());
+        locks.unlock("a.b.C");
+        assertEquals(2, locks.size());
+        locks.unlock("a.b.C");
+        locks.unlock("a.b.D");
+        assertEquals(0, locks.size());
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testUnlockWithoutLock() {
+        new CompilationLocks().unlock("a.b.C");
+    }
+
+    @Test
+    public void testConcurrentCompilations() throws Exception {
+        CompilationLocks locks = new CompilationLocks();
+        AtomicInteger[] holders = new AtomicInteger[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            holders[i] = new AtomicInteger();
+        }
+        AtomicInteger violations = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>(THREADS);
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        int key = (thread + i) % KEYS;
+                        locks.lock("a.b.C" + key);
+                        try {
+                            if (holders[key].incrementAndGet() != 1) {
+                                violations.incrementAndGet();
+                            }
+                            holders[key].decrementAndGet();
+                        } finally {
+                            locks.unlock("a.b.C" + key);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                // a deadlock makes the test fail with a TimeoutException
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("The same lock was held by more than one thread.", 0, violations.get());
+        assertEquals("Idle locks were not removed.", 0, locks.size());
+    }
+}
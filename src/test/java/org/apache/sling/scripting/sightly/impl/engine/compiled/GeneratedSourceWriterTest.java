@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine.compiled;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.commons.classloader.ClassLoaderWriter;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GeneratedSourceWriterTest {
+
+    @Test
+    public void testWritesAreCoalescedAndBounded() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Map<String, ByteArrayOutputStream> files = new ConcurrentHashMap<>();
+        ClassLoaderWriter classLoaderWriter = mock(ClassLoaderWriter.class);
+        when(classLoaderWriter.getOutputStream(anyString())).thenAnswer(invocation -> {
+            String path = invocation.getArgument(0);
+            if ("/a/A.java".equals(path)) {
+                writing.countDown();
+                assertTrue(release.await(10, TimeUnit.SECONDS));
+            }
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            files.put(path, outputStream);
+            return outputStream;
+        });
+
+        GeneratedSourceWriter writer = new GeneratedSourceWriter(2);
+        assertTrue(writer.write(classLoaderWriter, "/a/A.java", "class A {}"));
+        // the background thread is now blocked while writing A
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+        assertTrue(writer.write(classLoaderWriter, "/a/B.java", "class B {}"));
+        assertTrue(writer.write(classLoaderWriter, "/a/B.java", "class B { int b; }"));
+        assertTrue(writer.write(classLoaderWriter, "/a/C.java", "class C {}"));
+        assertFalse(writer.write(classLoaderWriter, "/a/D.java", "class D {}"));
+        assertEquals(1, writer.getDroppedWrites());
+        release.countDown();
+        writer.close(10000);
+
+        verify(classLoaderWriter, times(3)).getOutputStream(anyString());
+        assertEquals("class A {}", files.get("/a/A.java").toString(StandardCharsets.UTF_8.name()));
+        assertEquals("class B { int b; }", files.get("/a/B.java").toString(StandardCharsets.UTF_8.name()));
+        assertEquals("class C {}", files.get("/a/C.java").toString(StandardCharsets.UTF_8.name()));
+        assertFalse(files.containsKey("/a/D.java"));
+        assertFalse(writer.write(classLoaderWriter, "/a/E.java", "class E {}"));
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine.compiled;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.scripting.api.ScriptCache;
+import org.junit.Test;
+
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class HTLScriptChangeListenerTest {
+
+    @Test
+    public void testChangedScriptsAreEvictedAndRecompiled() {
+        ScriptCache scriptCache = mock(ScriptCache.class);
+        HTLScriptPrecompiler scriptPrecompiler = mock(HTLScriptPrecompiler.class);
+        HTLScriptChangeListener listener = new HTLScriptChangeListener(scriptCache, scriptPrecompiler);
+        listener.onChange(Arrays.asList(
+                new ResourceChange(ResourceChange.ChangeType.CHANGED, "/apps/component/a.html/jcr:content", false),
+                new ResourceChange(ResourceChange.ChangeType.ADDED, "/apps/component/b.html", false),
+                new ResourceChange(ResourceChange.ChangeType.REMOVED, "/apps/component/c.html", false),
+                new ResourceChange(ResourceChange.ChangeType.CHANGED, "/apps/component/script.js", false)));
+        verify(scriptCache).removeScript("/apps/component/a.html");
+        verify(scriptCache).removeScript("/apps/component/b.html");
+        verify(scriptCache).removeScript("/apps/component/c.html");
+        verify(scriptCache, times(3)).removeScript(anyString());
+        verify(scriptPrecompiler)
+                .recompile(new LinkedHashSet<>(Arrays.asList("/apps/component/a.html", "/apps/component/b.html")));
+    }
+
+    @Test
+    public void testOtherChangesAreIgnored() {
+        ScriptCache scriptCache = mock(ScriptCache.class);
+        HTLScriptPrecompiler scriptPrecompiler = mock(HTLScriptPrecompiler.class);
+        HTLScriptChangeListener listener = new HTLScriptChangeListener(scriptCache, scriptPrecompiler);
+        listener.onChange(Arrays.asList(
+                new ResourceChange(ResourceChange.ChangeType.CHANGED, "/apps/component", false),
+                new ResourceChange(ResourceChange.ChangeType.ADDED, "/apps/component/Pojo.java", false)));
+        verify(scriptCache, never()).removeScript(anyString());
+        verify(scriptPrecompiler, never()).recompile(anyCollection());
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine.compiled;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceMetadata;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.scripting.sightly.impl.engine.SightlyCompiledScript;
+import org.apache.sling.scripting.sightly.impl.engine.SightlyScriptEngine;
+import org.apache.sling.scripting.sightly.impl.engine.SightlyScriptEngineFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class HTLScriptPrecompilerTest {
+
+    private final Set<String> compiledScripts = ConcurrentHashMap.newKeySet();
+    private SightlyScriptEngineFactory scriptEngineFactory;
+    private ResourceResolverFactory resourceResolverFactory;
+    private HTLScriptPrecompiler precompiler;
+
+    @Before
+    public void setUp() throws Exception {
+        Resource apps = mockResource("/apps", null);
+        Resource component = mockResource("/apps/component", null);
+        Resource template = mockResource("/apps/component/component.html", "<div>${properties.title}</div>");
+        Resource broken = mockResource("/apps/component/broken.html", "<div data-sly-test=\"${\"></div>");
+        Resource clientlib = mockResource("/apps/component/script.js", "var a = 1;");
+        when(apps.listChildren()).thenReturn(Collections.singletonList(component).iterator());
+        when(component.listChildren())
+                .thenReturn(Arrays.asList(template, broken, clientlib).iterator());
+
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getSearchPath()).thenReturn(new String[] {"/apps/", "/libs/"});
+        when(resolver.getResource("/apps/")).thenReturn(apps);
+        resourceResolverFactory = mock(ResourceResolverFactory.class);
+        when(resourceResolverFactory.getServiceResourceResolver(isNull())).thenReturn(resolver);
+
+        scriptEngineFactory = mock(SightlyScriptEngineFactory.class);
+        when(scriptEngineFactory.getScriptEngine()).thenReturn(mock(SightlyScriptEngine.class));
+        SlingHTLMasterCompiler compiler = mock(SlingHTLMasterCompiler.class);
+        when(compiler.compileHTLScripts(any(SightlyScriptEngine.class), anyMap()))
+                .thenAnswer(invocation -> {
+                    Map<String, String> scripts = invocation.getArgument(1);
+                    Map<String, SightlyCompiledScript> result = new HashMap<>();
+                    for (String scriptName : scripts.keySet()) {
+                        if (!scriptName.endsWith("broken.html")) {
+                            compiledScripts.add(scriptName);
+                            result.put(scriptName, mock(SightlyCompiledScript.class));
+                        }
+                    }
+                    return result;
+                });
+        precompiler = new HTLScriptPrecompiler(scriptEngineFactory, () -> compiler, resourceResolverFactory, 2);
+    }
+
+    @After
+    public void tearDown() {
+        precompiler.stop();
+    }
+
+    @Test
+    public void testPrecompile() {
+        precompiler.precompile();
+        assertTrue(precompiler.isComplete());
+        assertEquals(2, precompiler.getTotal());
+        assertEquals(1, precompiler.getCompiled());
+        assertEquals(1, precompiler.getFailed());
+        assertEquals(Collections.singleton("/apps/component/component.html"), compiledScripts);
+    }
+
+    @Test
+    public void testPrecompileWithoutCompiler() {
+        HTLScriptPrecompiler withoutCompiler =
+                new HTLScriptPrecompiler(scriptEngineFactory, () -> null, resourceResolverFactory, 1);
+        try {
+            withoutCompiler.precompile();
+            assertTrue(withoutCompiler.isComplete());
+            assertEquals(0, withoutCompiler.getTotal());
+            assertTrue(compiledScripts.isEmpty());
+        } finally {
+            withoutCompiler.stop();
+        }
+    }
+
+    @Test
+    public void testPrecompileAfterStop() {
+        precompiler.stop();
+        precompiler.precompile();
+        assertFalse(precompiler.isComplete());
+        assertTrue(compiledScripts.isEmpty());
+    }
+
+    @Test
+    public void testRecompileAfterStop() {
+        precompiler.stop();
+        // the scripts are compiled on their next request instead
+        precompiler.recompile(Collections.singleton("/apps/component/component.html"));
+        assertTrue(compiledScripts.isEmpty());
+    }
+
+    private Resource mockResource(String path, String content) {
+        Resource resource = mock(Resource.class);
+        when(resource.getPath()).thenReturn(path);
+        when(resource.getName()).thenReturn(path.substring(path.lastIndexOf('/') + 1));
+        when(resource.listChildren()).thenReturn(Collections.emptyIterator());
+        when(resource.getResourceMetadata()).thenReturn(new ResourceMetadata());
+        if (content != null) {
+            InputStream inputStream = IOUtils.toInputStream(content, StandardCharsets.UTF_8);
+            when(resource.adaptTo(InputStream.class)).thenReturn(inputStream);
+        }
+        return resource;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine.compiled;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.commons.classloader.DynamicClassLoaderManager;
+import org.apache.sling.scripting.sightly.impl.compiler.MockPojo;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MemoryClassLoaderWriterTest {
+
+    private static final String CLASS_PATH = "/" + MockPojo.class.getName().replace('.', '/') + ".class";
+
+    private MemoryClassLoaderWriter writer;
+    private byte[] classBytes;
+
+    @Before
+    public void setUp() throws IOException {
+        // the parent class loader must not be able to load the test classes
+        ClassLoader parent = new URLClassLoader(new URL[0], null);
+        DynamicClassLoaderManager dynamicClassLoaderManager = mock(DynamicClassLoaderManager.class);
+        when(dynamicClassLoaderManager.getDynamicClassLoader()).thenReturn(parent);
+        writer = new MemoryClassLoaderWriter(dynamicClassLoaderManager);
+        try (InputStream is = MockPojo.class.getResourceAsStream(CLASS_PATH)) {
+            classBytes = IOUtils.toByteArray(is);
+        }
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        assertEquals(-1, writer.getLastModified(CLASS_PATH));
+        write(CLASS_PATH, classBytes);
+        assertTrue(writer.getLastModified(CLASS_PATH) > 0);
+        try (InputStream is = writer.getInputStream(CLASS_PATH)) {
+            assertArrayEquals(classBytes, IOUtils.toByteArray(is));
+        }
+        assertTrue(writer.rename(CLASS_PATH, CLASS_PATH + ".bak"));
+        assertEquals(-1, writer.getLastModified(CLASS_PATH));
+        assertTrue(writer.delete("/org/apache"));
+        assertEquals(-1, writer.getLastModified(CLASS_PATH + ".bak"));
+        assertFalse(writer.delete("/org/apache"));
+        try {
+            writer.getInputStream(CLASS_PATH);
+            fail("Expected an IOException for a missing file.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testClassLoaderGenerations() throws Exception {
+        write(CLASS_PATH, classBytes);
+        ClassLoader classLoader = writer.getClassLoader();
+        Class<?> mockPojo = classLoader.loadClass(MockPojo.class.getName());
+        assertNotSame(MockPojo.class, mockPojo);
+        assertSame(classLoader, mockPojo.getClassLoader());
+        assertSame(classLoader, writer.getClassLoader());
+
+        // writing a class that was not loaded yet keeps the class loader
+        write("/org/apache/sling/Other.class", classBytes);
+        assertSame(classLoader, writer.getClassLoader());
+
+        // overwriting a loaded class creates a new class loader generation
+        write(CLASS_PATH, classBytes);
+        ClassLoader nextClassLoader = writer.getClassLoader();
+        assertNotSame(classLoader, nextClassLoader);
+        Class<?> nextMockPojo = nextClassLoader.loadClass(MockPojo.class.getName());
+        assertNotSame(mockPojo, nextMockPojo);
+        assertSame(mockPojo, classLoader.loadClass(MockPojo.class.getName()));
+    }
+
+    private void write(String path, byte[] content) throws IOException {
+        try (OutputStream os = writer.getOutputStream(path)) {
+            os.write(content);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine.compiled;
+
+import org.apache.sling.commons.classloader.ClassLoaderWriter;
+import org.apache.sling.scripting.sightly.impl.compiler.MockPojo;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RenderUnitClassLoaderTest {
+
+    @Test
+    public void testRenderUnitClassesAreDefinedByTheirOwnClassLoader() throws Exception {
+        ClassLoaderWriter classLoaderWriter = mock(ClassLoaderWriter.class);
+        when(classLoaderWriter.getInputStream(anyString()))
+                .thenAnswer(invocation -> MockPojo.class.getResourceAsStream(invocation.getArgument(0)));
+        ClassLoader parent = getClass().getClassLoader();
+
+        RenderUnitClassLoader first = new RenderUnitClassLoader(parent, classLoaderWriter, MockPojo.class.getName());
+        RenderUnitClassLoader second = new RenderUnitClassLoader(parent, classLoaderWriter, MockPojo.class.getName());
+        assertTrue(RenderUnitClassLoader.getLiveClassLoaders() >= 2);
+
+        Class<?> firstClass = first.loadClass(MockPojo.class.getName());
+        Class<?> secondClass = second.loadClass(MockPojo.class.getName());
+        assertSame(first, firstClass.getClassLoader());
+        assertSame(second, secondClass.getClassLoader());
+        assertNotSame(MockPojo.class, firstClass);
+        assertNotSame(firstClass, secondClass);
+        assertSame(firstClass, first.loadClass(MockPojo.class.getName()));
+
+        // other classes are loaded by the parent
+        assertSame(RenderUnitClassLoaderTest.class, first.loadClass(RenderUnitClassLoaderTest.class.getName()));
+    }
+}
@@ -18,28 +18,49 @@
  */
 package org.apache.sling.scripting.sightly.impl.engine.compiled;
 
+import javax.script.ScriptException;
+
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceMetadata;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChange;
 import org.apache.sling.commons.classloader.ClassLoaderWriter;
+import org.apache.sling.commons.classloader.DynamicClassLoaderManager;
 import org.apache.sling.commons.compiler.CompilationResult;
 import org.apache.sling.commons.compiler.CompilationUnit;
 import org.apache.sling.commons.compiler.JavaCompiler;
 import org.apache.sling.commons.compiler.Options;
 import org.apache.sling.commons.compiler.source.JavaEscapeHelper;
+import org.apache.sling.scripting.api.CachedScript;
+import org.apache.sling.scripting.api.ScriptCache;
 import org.apache.sling.scripting.api.resource.ScriptingResourceResolverProvider;
+import org.apache.sling.scripting.core.ScriptNameAwareReader;
 import org.apache.sling.scripting.sightly.compiler.SightlyCompiler;
 import org.apache.sling.scripting.sightly.impl.compiler.MockPojo;
 import org.apache.sling.scripting.sightly.impl.engine.ResourceBackedPojoChangeMonitor;
+import org.apache.sling.scripting.sightly.impl.engine.SightlyCompiledScript;
 import org.apache.sling.scripting.sightly.impl.engine.SightlyEngineConfiguration;
+import org.apache.sling.scripting.sightly.impl.engine.SightlyScriptEngine;
+import org.apache.sling.scripting.sightly.impl.engine.extension.use.testmodels.MockRenderUnit;
 import org.apache.sling.scripting.sightly.impl.engine.runtime.RenderContextImpl;
 import org.apache.sling.scripting.sightly.render.RenderContext;
 import org.junit.After;
@@ -50,10 +71,15 @@ import org.powermock.reflect.Whitebox;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
@@ -290,6 +316,166 @@ public class SlingHTLMasterCompilerTest {
         }
     }
 
+    @Test
+    public void testMissingUseObjectSourceIsNotLookedUpAgain() {
+        String pojoPath = "/org/example/Model.java";
+        String className = "org.example.Model";
+        ResourceResolver resolver = Mockito.mock(ResourceResolver.class);
+        when(scriptingResourceResolverProvider.getRequestScopedResourceResolver())
+                .thenReturn(resolver);
+        Whitebox.setInternalState(compiler, "scriptingResourceResolverProvider", scriptingResourceResolverProvider);
+        RenderContextImpl renderContext = mock(RenderContextImpl.class);
+
+        assertNull(compiler.getResourceBackedUseObject(renderContext, className));
+        assertNull(compiler.getResourceBackedUseObject(renderContext, className));
+        verify(resolver, times(1)).getResource(pojoPath);
+
+        // the source is looked up again once a resource is added at its path
+        resourceBackedPojoChangeMonitor.onChange(
+                Collections.singletonList(new ResourceChange(ResourceChange.ChangeType.ADDED, pojoPath, false)));
+        assertNull(compiler.getResourceBackedUseObject(renderContext, className));
+        verify(resolver, times(2)).getResource(pojoPath);
+    }
+
+    @Test
+    public void testPersistedRenderUnit() throws Exception {
+        String scriptName = "/apps/myproject/testcomponents/a/a.html";
+        String source = "<div>${properties.title}</div>";
+        setUpHTLScriptCompilation();
+        when(sightlyEngineConfiguration.getEngineVersion()).thenReturn("1.0.17");
+        String className = new SourceIdentifier(sightlyEngineConfiguration, scriptName).getFullyQualifiedClassName();
+        when(classLoaderWriter.getInputStream("/" + className.replace(".", "/") + ".sha256"))
+                .thenReturn(IOUtils.toInputStream(compiler.computeSourceHash(scriptName, source), "UTF-8"));
+        when(classLoaderWriter.getClassLoader().loadClass(className)).thenAnswer(invocationOnMock -> MockRenderUnit.class);
+        SightlyCompiledScript compiledScript = compiler.compileHTLScript(
+                mock(SightlyScriptEngine.class), new ScriptNameAwareReader(new StringReader(source), scriptName), null);
+        assertTrue(compiledScript.getRenderUnit() instanceof MockRenderUnit);
+        verify(javaCompiler, never()).compile(any(CompilationUnit[].class), any(Options.class));
+    }
+
+    @Test
+    public void testPersistedRenderUnitOfSnapshotEngine() throws Exception {
+        String scriptName = "/apps/myproject/testcomponents/a/a.html";
+        String source = "<div>${properties.title}</div>";
+        setUpHTLScriptCompilation();
+        String className = new SourceIdentifier(sightlyEngineConfiguration, scriptName).getFullyQualifiedClassName();
+        String hashPath = "/" + className.replace(".", "/") + ".sha256";
+        when(classLoaderWriter.getInputStream(hashPath))
+                .thenReturn(IOUtils.toInputStream(compiler.computeSourceHash(scriptName, source), "UTF-8"));
+        when(classLoaderWriter.getOutputStream(hashPath)).thenReturn(new ByteArrayOutputStream());
+        when(classLoaderWriter.getClassLoader().loadClass(className)).thenAnswer(invocationOnMock -> MockRenderUnit.class);
+        CompilationResult compilationResult = mock(CompilationResult.class);
+        when(compilationResult.getErrors()).thenReturn(new ArrayList<>());
+        when(javaCompiler.compile(any(CompilationUnit[].class), isNull())).thenReturn(compilationResult);
+        compiler.compileHTLScript(
+                mock(SightlyScriptEngine.class), new ScriptNameAwareReader(new StringReader(source), scriptName), null);
+        // the engine version 1.0.17-SNAPSHOT doesn't identify the engine's code
+        verify(javaCompiler, times(1)).compile(any(CompilationUnit[].class), isNull());
+    }
+
+    @Test
+    public void testStalePersistedRenderUnit() throws Exception {
+        String scriptName = "/apps/myproject/testcomponents/a/a.html";
+        String source = "<div>${properties.title}</div>";
+        setUpHTLScriptCompilation();
+        String className = new SourceIdentifier(sightlyEngineConfiguration, scriptName).getFullyQualifiedClassName();
+        String hashPath = "/" + className.replace(".", "/") + ".sha256";
+        when(classLoaderWriter.getInputStream(hashPath))
+                .thenReturn(IOUtils.toInputStream(compiler.computeSourceHash(scriptName, "<div></div>"), "UTF-8"));
+        ByteArrayOutputStream hashOutputStream = new ByteArrayOutputStream();
+        when(classLoaderWriter.getOutputStream(hashPath)).thenReturn(hashOutputStream);
+        when(classLoaderWriter.getClassLoader().loadClass(className)).thenAnswer(invocationOnMock -> MockRenderUnit.class);
+        CompilationResult compilationResult = mock(CompilationResult.class);
+        when(compilationResult.getErrors()).thenReturn(new ArrayList<>());
+        when(javaCompiler.compile(any(CompilationUnit[].class), isNull())).thenReturn(compilationResult);
+        compiler.compileHTLScript(
+                mock(SightlyScriptEngine.class), new ScriptNameAwareReader(new StringReader(source), scriptName), null);
+        verify(javaCompiler, times(1)).compile(any(CompilationUnit[].class), isNull());
+        assertEquals(compiler.computeSourceHash(scriptName, source), hashOutputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void testInterruptedWhileWaitingForAPendingCompilation() {
+        String scriptName = "/apps/myproject/testcomponents/a/a.html";
+        setUpHTLScriptCompilation();
+        Map<String, CompletableFuture<SightlyCompiledScript>> pendingCompilations =
+                Whitebox.getInternalState(compiler, "pendingCompilations");
+        pendingCompilations.put(scriptName, new CompletableFuture<>());
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(
+                    ScriptException.class,
+                    () -> compiler.compileHTLScript(
+                            mock(SightlyScriptEngine.class),
+                            new ScriptNameAwareReader(new StringReader("<div></div>"), scriptName),
+                            null));
+            // the interrupt is preserved for the caller
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        verify(javaCompiler, never()).compile(any(CompilationUnit[].class), any());
+    }
+
+    @Test
+    public void testConcurrentCompilationsOfTheSameScript() throws Exception {
+        String scriptName = "/apps/myproject/testcomponents/a/a.html";
+        String source = "<div>${properties.title}</div>";
+        setUpHTLScriptCompilation();
+        Map<String, CachedScript> cache = new ConcurrentHashMap<>();
+        ScriptCache scriptCache = mock(ScriptCache.class);
+        when(scriptCache.getScript(anyString())).thenAnswer(invocation -> cache.get(invocation.getArgument(0)));
+        doAnswer(invocation -> {
+                    CachedScript cachedScript = invocation.getArgument(0);
+                    cache.put(cachedScript.getScriptPath(), cachedScript);
+                    return null;
+                })
+                .when(scriptCache)
+                .putScript(any(CachedScript.class));
+        Whitebox.setInternalState(compiler, "scriptCache", scriptCache);
+        String className = new SourceIdentifier(sightlyEngineConfiguration, scriptName).getFullyQualifiedClassName();
+        when(classLoaderWriter.getClassLoader().loadClass(className)).thenAnswer(invocationOnMock -> MockRenderUnit.class);
+        CompilationResult compilationResult = mock(CompilationResult.class);
+        when(compilationResult.getErrors()).thenReturn(new ArrayList<>());
+        when(javaCompiler.compile(any(CompilationUnit[].class), isNull())).thenAnswer(invocation -> {
+            Thread.sleep(100);
+            return compilationResult;
+        });
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<SightlyCompiledScript>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return compiler.compileHTLScript(
+                            mock(SightlyScriptEngine.class),
+                            new ScriptNameAwareReader(new StringReader(source), scriptName),
+                            null);
+                }));
+            }
+            start.countDown();
+            SightlyCompiledScript compiledScript = futures.get(0).get(10, TimeUnit.SECONDS);
+            for (Future<SightlyCompiledScript> future : futures) {
+                assertSame(compiledScript, future.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(javaCompiler, times(1)).compile(any(CompilationUnit[].class), isNull());
+    }
+
+    private void setUpHTLScriptCompilation() {
+        ResourceResolverFactory resourceResolverFactory = mock(ResourceResolverFactory.class);
+        when(resourceResolverFactory.getSearchPath()).thenReturn(new String[] {"/apps/", "/libs/"});
+        DynamicClassLoaderManager dynamicClassLoaderManager = mock(DynamicClassLoaderManager.class);
+        when(dynamicClassLoaderManager.getDynamicClassLoader()).thenReturn(getClass().getClassLoader());
+        Whitebox.setInternalState(compiler, "resourceResolverFactory", resourceResolverFactory);
+        Whitebox.setInternalState(compiler, "dynamicClassLoaderManager", dynamicClassLoaderManager);
+        Whitebox.setInternalState(compiler, "scriptCache", mock(ScriptCache.class));
+    }
+
     private void getInstancePojoTest(String className) throws Exception {
         RenderContextImpl renderContext = mock(RenderContextImpl.class);
         CompilationResult compilationResult = mock(CompilationResult.class);
@@ -19,6 +19,8 @@
 package org.apache.sling.scripting.sightly.impl.engine.extension;
 
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -33,6 +35,7 @@ import org.apache.sling.api.scripting.SlingBindings;
 import org.apache.sling.api.scripting.SlingScriptHelper;
 import org.apache.sling.api.servlets.ServletResolver;
 import org.apache.sling.scripting.sightly.SightlyException;
+import org.apache.sling.scripting.sightly.impl.engine.runtime.RenderContextImpl;
 import org.apache.sling.scripting.sightly.render.AbstractRuntimeObjectModel;
 import org.apache.sling.scripting.sightly.render.RenderContext;
 import org.apache.sling.scripting.sightly.render.RuntimeObjectModel;
@@ -170,4 +173,29 @@ public class IncludeRuntimeExtensionTest {
         result = extension.call(renderContext, "page3.html", arguments);
         assertEquals("hello3", result);
     }
+
+    @Test
+    public void testCallWritesIntoTheRenderOutput() throws ServletException, IOException {
+        StringWriter output = new StringWriter();
+        RenderContextImpl renderContextImpl = Mockito.mock(RenderContextImpl.class);
+        Mockito.when(renderContextImpl.getObjectModel()).thenReturn(renderContext.getObjectModel());
+        Mockito.when(renderContextImpl.getBindings()).thenReturn(requestBindings);
+        Mockito.when(renderContextImpl.getOutput()).thenReturn(new PrintWriter(output, true));
+
+        ServletResolver mockServletResolver = Mockito.mock(ServletResolver.class);
+        Mockito.when(mockScriptHelper.getService(ServletResolver.class)).thenReturn(mockServletResolver);
+        Servlet mockJakartaServlet = Mockito.mock(Servlet.class);
+        Mockito.doAnswer(invocation -> {
+                    invocation.getArgument(1, ServletResponse.class).getWriter().print("hello");
+                    return null;
+                })
+                .when(mockJakartaServlet)
+                .service(any(ServletRequest.class), any(ServletResponse.class));
+        Mockito.when(mockServletResolver.resolve(any(Resource.class), eq("page.html")))
+                .thenReturn(mockJakartaServlet);
+
+        Object result = extension.call(renderContextImpl, "page.html", new HashMap<String, Object>());
+        assertEquals("", result);
+        assertEquals("hello", output.toString());
+    }
 }
@@ -19,6 +19,8 @@
 package org.apache.sling.scripting.sightly.impl.engine.extension;
 
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -32,6 +34,8 @@ import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.scripting.SlingBindings;
 import org.apache.sling.scripting.sightly.SightlyException;
+import org.apache.sling.scripting.sightly.impl.engine.runtime.HTLOutputWriter;
+import org.apache.sling.scripting.sightly.impl.engine.runtime.RenderContextImpl;
 import org.apache.sling.scripting.sightly.render.AbstractRuntimeObjectModel;
 import org.apache.sling.scripting.sightly.render.RenderContext;
 import org.apache.sling.scripting.sightly.render.RuntimeObjectModel;
@@ -171,4 +175,93 @@ public class ResourceRuntimeExtensionTest {
         result = extension.call(renderContext, "", arguments);
         assertEquals("hello", result);
     }
+
+    @Test
+    public void testCallWritesIntoTheRenderOutput() throws ServletException, IOException {
+        StringWriter output = new StringWriter();
+        RenderContextImpl renderContextImpl = Mockito.mock(RenderContextImpl.class);
+        Mockito.when(renderContextImpl.getObjectModel()).thenReturn(renderContext.getObjectModel());
+        Mockito.when(renderContextImpl.getBindings()).thenReturn(requestBindings);
+        Mockito.when(renderContextImpl.getOutput()).thenReturn(new PrintWriter(output));
+
+        MockJakartaRequestDispatcherFactory mockDispatchFactory =
+                Mockito.mock(MockJakartaRequestDispatcherFactory.class);
+        context.jakartaRequest().setRequestDispatcherFactory(mockDispatchFactory);
+        RequestDispatcher mockPageRequestDispatcher = Mockito.mock(RequestDispatcher.class);
+        Mockito.doAnswer(invocation -> {
+                    invocation.getArgument(1, ServletResponse.class).getWriter().print("hello");
+                    return null;
+                })
+                .when(mockPageRequestDispatcher)
+                .include(any(ServletRequest.class), any(ServletResponse.class));
+        Mockito.when(mockDispatchFactory.getRequestDispatcher(any(Resource.class), any(RequestDispatcherOptions.class)))
+                .thenReturn(mockPageRequestDispatcher);
+
+        Object result = extension.call(renderContextImpl, "page.html", new HashMap<String, Object>());
+        assertEquals("", result);
+        assertEquals("hello", output.toString());
+        result = extension.call(renderContextImpl, "/node1", new HashMap<String, Object>());
+        assertEquals("", result);
+        assertEquals("hellohello", output.toString());
+    }
+
+    @Test
+    public void testFailingIncludeLeavesItsPartialOutput() throws ServletException, IOException {
+        StringWriter output = new StringWriter();
+        RenderContextImpl renderContextImpl = Mockito.mock(RenderContextImpl.class);
+        Mockito.when(renderContextImpl.getObjectModel()).thenReturn(renderContext.getObjectModel());
+        Mockito.when(renderContextImpl.getBindings()).thenReturn(requestBindings);
+        Mockito.when(renderContextImpl.getOutput()).thenReturn(new PrintWriter(output));
+
+        MockJakartaRequestDispatcherFactory mockDispatchFactory =
+                Mockito.mock(MockJakartaRequestDispatcherFactory.class);
+        context.jakartaRequest().setRequestDispatcherFactory(mockDispatchFactory);
+        RequestDispatcher mockPageRequestDispatcher = Mockito.mock(RequestDispatcher.class);
+        Mockito.doAnswer(invocation -> {
+                    invocation.getArgument(1, ServletResponse.class).getWriter().print("<div>");
+                    throw new ServletException("failed");
+                })
+                .when(mockPageRequestDispatcher)
+                .include(any(ServletRequest.class), any(ServletResponse.class));
+        Mockito.when(mockDispatchFactory.getRequestDispatcher(any(Resource.class), any(RequestDispatcherOptions.class)))
+                .thenReturn(mockPageRequestDispatcher);
+
+        Map<String, Object> arguments = new HashMap<>();
+        SightlyException exception =
+                assertThrows(SightlyException.class, () -> extension.call(renderContextImpl, "page.html", arguments));
+        assertEquals(ServletException.class, exception.getCause().getClass());
+        // the markup written before the failure isn't discarded, the failure aborts the including script's rendering
+        assertEquals("<div>", output.toString());
+    }
+    @Test
+    public void testIncludedServletClosingItsWriter() throws ServletException, IOException {
+        StringWriter response = new StringWriter();
+        HTLOutputWriter output = HTLOutputWriter.forTarget(response);
+        RenderContextImpl renderContextImpl = Mockito.mock(RenderContextImpl.class);
+        Mockito.when(renderContextImpl.getObjectModel()).thenReturn(renderContext.getObjectModel());
+        Mockito.when(renderContextImpl.getBindings()).thenReturn(requestBindings);
+        Mockito.when(renderContextImpl.getOutput()).thenReturn(output);
+
+        MockJakartaRequestDispatcherFactory mockDispatchFactory =
+                Mockito.mock(MockJakartaRequestDispatcherFactory.class);
+        context.jakartaRequest().setRequestDispatcherFactory(mockDispatchFactory);
+        RequestDispatcher mockPageRequestDispatcher = Mockito.mock(RequestDispatcher.class);
+        Mockito.doAnswer(invocation -> {
+                    PrintWriter writer = invocation.getArgument(1, ServletResponse.class).getWriter();
+                    writer.print("hello");
+                    writer.close();
+                    return null;
+                })
+                .when(mockPageRequestDispatcher)
+                .include(any(ServletRequest.class), any(ServletResponse.class));
+        Mockito.when(mockDispatchFactory.getRequestDispatcher(any(Resource.class), any(RequestDispatcherOptions.class)))
+                .thenReturn(mockPageRequestDispatcher);
+
+        output.write("<div>");
+        assertEquals("", extension.call(renderContextImpl, "page.html", new HashMap<String, Object>()));
+        // the including render unit keeps writing after the included servlet closed its writer
+        output.write("</div>");
+        output.close();
+        assertEquals("<div>hello</div>", response.toString());
+    }
 }
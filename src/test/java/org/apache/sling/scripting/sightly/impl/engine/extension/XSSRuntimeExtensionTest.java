@@ -18,9 +18,13 @@
  */
 package org.apache.sling.scripting.sightly.impl.engine.extension;
 
+import org.apache.sling.scripting.sightly.render.AbstractRuntimeObjectModel;
+import org.apache.sling.scripting.sightly.render.RenderContext;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class XSSRuntimeExtensionTest {
 
@@ -28,4 +32,19 @@ public class XSSRuntimeExtensionTest {
     public void testEncodeForJsonString() {
         assertEquals("\\\"'\\\\\\t |", XSSRuntimeExtension.encodeForJsonString("\"\'\\\t |"));
     }
+
+    @Test
+    public void testNumberContext() {
+        RenderContext renderContext = mock(RenderContext.class);
+        when(renderContext.getObjectModel()).thenReturn(new AbstractRuntimeObjectModel() {});
+        XSSRuntimeExtension extension = new XSSRuntimeExtension();
+        assertEquals("42", extension.call(renderContext, 42, "number"));
+        assertEquals("-7", extension.call(renderContext, -7L, "number"));
+        assertEquals("3", extension.call(renderContext, (short) 3, "number"));
+        assertEquals("-128", extension.call(renderContext, Byte.MIN_VALUE, "number"));
+        assertEquals(String.valueOf(Long.MAX_VALUE), extension.call(renderContext, Long.MAX_VALUE, "number"));
+        assertEquals("12", extension.call(renderContext, "12", "number"));
+        assertEquals("0", extension.call(renderContext, "text", "number"));
+        assertEquals("0", extension.call(renderContext, null, "number"));
+    }
 }
@@ -21,6 +21,8 @@ package org.apache.sling.scripting.sightly.impl.engine.extension.use;
 import javax.script.Bindings;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.sling.api.SlingJakartaHttpServletRequest;
@@ -30,6 +32,7 @@ import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.scripting.SlingBindings;
+import org.apache.sling.models.factory.ModelFactory;
 import org.apache.sling.scripting.sightly.impl.engine.bundled.BundledUnitManagerImpl;
 import org.apache.sling.scripting.sightly.impl.engine.compiled.SlingHTLMasterCompiler;
 import org.apache.sling.scripting.sightly.impl.engine.extension.use.testmodels.AbstractModel;
@@ -55,7 +58,10 @@ import org.junit.Test;
 import org.mockito.Mockito;
 import org.osgi.framework.BundleEvent;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
@@ -236,6 +242,28 @@ public class JavaUseProviderTest {
         assertTrue(outcome.isSuccess());
     }
 
+    @Test
+    public void testModelAdaptablesAreNotRemembered() {
+        ModelFactory modelFactory = Mockito.mock(ModelFactory.class);
+        Mockito.when(modelFactory.isModelClass(ResourceModel.class)).thenReturn(true);
+        Mockito.when(modelFactory.createModel(any(Resource.class), eq(ResourceModel.class)))
+                .thenAnswer(invocation -> new ResourceModel());
+        ReflectionTools.setFieldWithReflection(provider, "modelFactory", modelFactory);
+
+        // no model is registered for the resource yet
+        ProviderOutcome outcome = provider.provide(ResourceModel.class.getName(), renderContext, arguments);
+        assertTrue(outcome.isFailure());
+
+        // the model's bundle was started
+        Mockito.when(modelFactory.canCreateFromAdaptable(any(Resource.class), eq(ResourceModel.class)))
+                .thenReturn(true);
+        outcome = provider.provide(ResourceModel.class.getName(), renderContext, arguments);
+        assertTrue(outcome.isSuccess());
+        Mockito.verify(modelFactory, Mockito.times(2))
+                .canCreateFromAdaptable(any(Resource.class), eq(ResourceModel.class));
+        Mockito.verify(modelFactory, Mockito.times(1)).createModel(any(Resource.class), eq(ResourceModel.class));
+    }
+
     @Test
     public void testProvideForPojo() {
         // clear the field so we don't even consider that path
@@ -315,6 +343,37 @@ public class JavaUseProviderTest {
         assertTrue(outcome.isFailure());
     }
 
+    @Test
+    public void testResolveClassIsCachedPerClassLoader() {
+        List<String> loadedClasses = new ArrayList<>();
+        ClassLoader classLoader = new ClassLoader(getClass().getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                loadedClasses.add(name);
+                return super.loadClass(name, resolve);
+            }
+        };
+        assertSame(PojoModel.class, provider.resolveClass(classLoader, PojoModel.class.getName()));
+        assertSame(PojoModel.class, provider.resolveClass(classLoader, PojoModel.class.getName()));
+        assertNull(provider.resolveClass(classLoader, "package1.Invalid"));
+        assertNull(provider.resolveClass(classLoader, "package1.Invalid"));
+        assertEquals(List.of(PojoModel.class.getName(), "package1.Invalid"), loadedClasses);
+
+        // a new class loader, e.g. after a bundle update, resolves the classes again
+        ClassLoader otherClassLoader = new ClassLoader(classLoader) {};
+        assertSame(PojoModel.class, provider.resolveClass(otherClassLoader, PojoModel.class.getName()));
+        assertEquals(3, loadedClasses.size());
+
+        // only a bounded number of missing classes is remembered
+        loadedClasses.clear();
+        for (int i = 0; i < JavaUseProvider.MAX_MISSING_CLASSES + 1; i++) {
+            assertNull(provider.resolveClass(classLoader, "package1.Invalid" + i));
+        }
+        assertNull(provider.resolveClass(classLoader, "package1.Invalid0"));
+        assertNull(provider.resolveClass(classLoader, "package1.Invalid" + JavaUseProvider.MAX_MISSING_CLASSES));
+        assertEquals(JavaUseProvider.MAX_MISSING_CLASSES + 2, loadedClasses.size());
+    }
+
     @SuppressWarnings("deprecation")
     private void registerTestModelAdapterManagers() {
         context.registerService(
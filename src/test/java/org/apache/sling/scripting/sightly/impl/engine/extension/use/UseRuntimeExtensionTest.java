@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine.extension.use;
+
+import javax.script.Bindings;
+import javax.script.ScriptEngine;
+import javax.script.SimpleBindings;
+
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.scripting.SlingBindings;
+import org.apache.sling.scripting.sightly.SightlyException;
+import org.apache.sling.scripting.sightly.impl.engine.SightlyEngineConfiguration;
+import org.apache.sling.scripting.sightly.render.AbstractRuntimeObjectModel;
+import org.apache.sling.scripting.sightly.render.RenderContext;
+import org.apache.sling.scripting.sightly.use.ProviderOutcome;
+import org.apache.sling.scripting.sightly.use.UseProvider;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.powermock.reflect.Whitebox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UseRuntimeExtensionTest {
+
+    @Rule
+    public SlingContext context = new SlingContext();
+
+    private RenderContext renderContext;
+    private UseProvider highRankingProvider;
+    private UseProvider lowRankingProvider;
+    private UseRuntimeExtension extension;
+
+    @Before
+    public void setUp() {
+        renderContext = mock(RenderContext.class);
+        when(renderContext.getObjectModel()).thenReturn(new AbstractRuntimeObjectModel() {});
+        Bindings bindings = new SimpleBindings();
+        when(renderContext.getBindings()).thenReturn(bindings);
+
+        highRankingProvider = mock(UseProvider.class);
+        when(highRankingProvider.provide(anyString(), any(RenderContext.class), any(Bindings.class)))
+                .thenReturn(ProviderOutcome.failure());
+        when(highRankingProvider.provide(eq("high"), any(RenderContext.class), any(Bindings.class)))
+                .thenReturn(ProviderOutcome.success("highResult"));
+        lowRankingProvider = mock(UseProvider.class);
+        when(lowRankingProvider.provide(anyString(), any(RenderContext.class), any(Bindings.class)))
+                .thenReturn(ProviderOutcome.failure());
+        when(lowRankingProvider.provide(eq("low"), any(RenderContext.class), any(Bindings.class)))
+                .thenReturn(ProviderOutcome.success("lowResult"));
+        context.registerService(UseProvider.class, highRankingProvider, Constants.SERVICE_RANKING, 100);
+        context.registerService(UseProvider.class, lowRankingProvider, Constants.SERVICE_RANKING, 10);
+        extension = context.registerInjectActivateService(UseRuntimeExtension.class);
+    }
+
+    @Test
+    public void testProvidersAreRemembered() {
+        Map<String, Object> arguments = Collections.emptyMap();
+        assertEquals("lowResult", extension.call(renderContext, "low", arguments));
+        assertEquals("lowResult", extension.call(renderContext, "low", arguments));
+        assertEquals("highResult", extension.call(renderContext, "high", arguments));
+        verify(highRankingProvider, times(1)).provide(eq("low"), any(RenderContext.class), any(Bindings.class));
+        verify(lowRankingProvider, times(2)).provide(eq("low"), any(RenderContext.class), any(Bindings.class));
+
+        // the full chain is used again if the remembered provider cannot resolve the identifier anymore
+        when(lowRankingProvider.provide(eq("low"), any(RenderContext.class), any(Bindings.class)))
+                .thenReturn(ProviderOutcome.failure());
+        when(highRankingProvider.provide(eq("low"), any(RenderContext.class), any(Bindings.class)))
+                .thenReturn(ProviderOutcome.success("movedResult"));
+        assertEquals("movedResult", extension.call(renderContext, "low", arguments));
+        assertEquals("movedResult", extension.call(renderContext, "low", arguments));
+        verify(lowRankingProvider, times(3)).provide(eq("low"), any(RenderContext.class), any(Bindings.class));
+
+        assertThrows(SightlyException.class, () -> extension.call(renderContext, "unknown", arguments));
+    }
+
+    @Test
+    public void testRoutesAreClearedWhenProvidersChange() {
+        Map<String, Object> arguments = Collections.emptyMap();
+        assertEquals("lowResult", extension.call(renderContext, "low", arguments));
+
+        UseProvider newProvider = mock(UseProvider.class);
+        when(newProvider.provide(anyString(), any(RenderContext.class), any(Bindings.class)))
+                .thenReturn(ProviderOutcome.success("newResult"));
+        Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(Constants.SERVICE_RANKING, 1000);
+        ServiceRegistration<UseProvider> registration =
+                context.bundleContext().registerService(UseProvider.class, newProvider, properties);
+        assertEquals("newResult", extension.call(renderContext, "low", arguments));
+
+        registration.unregister();
+        assertEquals("lowResult", extension.call(renderContext, "low", arguments));
+    }
+
+    @Test
+    public void testRoutesAreClearedWhenResourcesChange() {
+        Map<String, Object> arguments = Collections.emptyMap();
+        assertEquals("lowResult", extension.call(renderContext, "low", arguments));
+
+        // e.g. a script which the high ranking provider resolves is added to the repository
+        when(highRankingProvider.provide(eq("low"), any(RenderContext.class), any(Bindings.class)))
+                .thenReturn(ProviderOutcome.success("addedResult"));
+        assertEquals("lowResult", extension.call(renderContext, "low", arguments));
+        extension.onChange(Collections.singletonList(
+                new ResourceChange(ResourceChange.ChangeType.ADDED, "/apps/component/low.html", false)));
+        assertEquals("addedResult", extension.call(renderContext, "low", arguments));
+    }
+
+    @Test
+    public void testRoutesArePerCallingScript() {
+        Map<String, Object> arguments = Collections.emptyMap();
+        Bindings bindings = renderContext.getBindings();
+        // the high ranking provider resolves the identifier only next to script b
+        when(highRankingProvider.provide(eq("relative"), any(RenderContext.class), any(Bindings.class)))
+                .thenAnswer(invocation -> {
+                    RenderContext callContext = invocation.getArgument(1);
+                    Object script = callContext.getBindings().get(ScriptEngine.FILENAME);
+                    return "/apps/b/b.html".equals(script)
+                            ? ProviderOutcome.success("highRelative")
+                            : ProviderOutcome.failure();
+                });
+        when(lowRankingProvider.provide(eq("relative"), any(RenderContext.class), any(Bindings.class)))
+                .thenReturn(ProviderOutcome.success("lowRelative"));
+
+        bindings.put(ScriptEngine.FILENAME, "/apps/a/a.html");
+        assertEquals("lowRelative", extension.call(renderContext, "relative", arguments));
+        bindings.put(ScriptEngine.FILENAME, "/apps/b/b.html");
+        assertEquals("highRelative", extension.call(renderContext, "relative", arguments));
+        bindings.put(ScriptEngine.FILENAME, "/apps/a/a.html");
+        assertEquals("lowRelative", extension.call(renderContext, "relative", arguments));
+        verify(highRankingProvider, times(2)).provide(eq("relative"), any(RenderContext.class), any(Bindings.class));
+    }
+
+    @Test
+    public void testRoutesToUnboundProvidersAreIgnored() {
+        Map<String, Object> arguments = Collections.emptyMap();
+        UseProvider unboundProvider = mock(UseProvider.class);
+        // a route added by a call that completed after the provider was unbound
+        Map<String, Map<String, UseProvider>> routes = Whitebox.getInternalState(extension, "routes");
+        routes.put("low", new ConcurrentHashMap<>(Collections.singletonMap(":", unboundProvider)));
+
+        assertEquals("lowResult", extension.call(renderContext, "low", arguments));
+        verify(unboundProvider, never()).provide(anyString(), any(RenderContext.class), any(Bindings.class));
+        assertEquals(lowRankingProvider, routes.get("low").get(":"));
+    }
+
+    @Test
+    public void testRequestScopedUseObjects() {
+        SightlyEngineConfiguration configuration = mock(SightlyEngineConfiguration.class);
+        when(configuration.getRequestScopedUseObjects()).thenReturn(Set.of("shared"));
+        context.registerService(SightlyEngineConfiguration.class, configuration);
+        extension = context.registerInjectActivateService(UseRuntimeExtension.class);
+        when(lowRankingProvider.provide(eq("shared"), any(RenderContext.class), any(Bindings.class)))
+                .thenAnswer(invocation -> ProviderOutcome.success(new Object()));
+        when(lowRankingProvider.provide(eq("notShared"), any(RenderContext.class), any(Bindings.class)))
+                .thenAnswer(invocation -> ProviderOutcome.success(new Object()));
+        Resource resource = context.create().resource("/content/page");
+        Bindings bindings = renderContext.getBindings();
+        bindings.put(SlingBindings.JAKARTA_REQUEST, context.jakartaRequest());
+        bindings.put(SlingBindings.RESOURCE, resource);
+
+        Map<String, Object> arguments = Collections.singletonMap("key", "value");
+        Object useObject = extension.call(renderContext, "shared", arguments);
+        assertSame(useObject, extension.call(renderContext, "shared", Collections.singletonMap("key", "value")));
+        assertNotSame(useObject, extension.call(renderContext, "shared", Collections.emptyMap()));
+        assertNotSame(
+                extension.call(renderContext, "notShared", arguments),
+                extension.call(renderContext, "notShared", arguments));
+
+        // Use-objects are shared only for the same resource
+        bindings.put(SlingBindings.RESOURCE, context.create().resource("/content/page/header"));
+        assertNotSame(useObject, extension.call(renderContext, "shared", arguments));
+        bindings.put(SlingBindings.RESOURCE, resource);
+        assertSame(useObject, extension.call(renderContext, "shared", arguments));
+
+        // and only for the same calling script
+        bindings.put(ScriptEngine.FILENAME, "/apps/b/b.html");
+        assertNotSame(useObject, extension.call(renderContext, "shared", arguments));
+        bindings.remove(ScriptEngine.FILENAME);
+        assertSame(useObject, extension.call(renderContext, "shared", arguments));
+        verify(lowRankingProvider, times(4)).provide(eq("shared"), any(RenderContext.class), any(Bindings.class));
+    }
+}
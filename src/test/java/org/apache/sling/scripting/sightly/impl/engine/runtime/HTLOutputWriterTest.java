@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine.runtime;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HTLOutputWriterTest {
+
+    @Test
+    public void testOutputIsWrittenInChunks() {
+        StringWriter target = new StringWriter();
+        HTLOutputWriter out = HTLOutputWriter.forTarget(target);
+        assertSame(out, HTLOutputWriter.forTarget(out));
+
+        out.write("<div>");
+        out.write('a');
+        out.write(new char[] {'b', 'c'});
+        assertEquals("", target.toString());
+
+        String large = StringUtils.repeat('x', HTLOutputWriter.BUFFER_SIZE * 2 + 10);
+        out.write(large);
+        assertTrue(target.toString().length() >= HTLOutputWriter.BUFFER_SIZE * 2);
+        out.write(large.toCharArray());
+        out.print("</div>");
+
+        out.close();
+        assertEquals("<div>abc" + large + large + "</div>", target.toString());
+
+        // writing to a closed writer doesn't change the target
+        out.write("ignored");
+        assertTrue(out.checkError());
+        assertEquals("<div>abc" + large + large + "</div>", target.toString());
+    }
+
+    @Test
+    public void testFlush() {
+        AtomicInteger flushes = new AtomicInteger();
+        StringWriter target = new StringWriter() {
+            @Override
+            public void flush() {
+                flushes.incrementAndGet();
+            }
+        };
+        HTLOutputWriter out = HTLOutputWriter.forTarget(target);
+        out.write("text");
+        out.flush();
+        assertEquals("text", target.toString());
+        out.close();
+        assertEquals("text", target.toString());
+        // a flush from an included script must not commit the response
+        assertEquals(0, flushes.get());
+    }
+
+    @Test
+    public void testClosingTheIncludeWriter() {
+        StringWriter target = new StringWriter();
+        HTLOutputWriter out = HTLOutputWriter.forTarget(target);
+        out.write("<div>");
+        PrintWriter includeWriter = out.getIncludeWriter();
+        includeWriter.write("included");
+        // included servlets commonly close their writer
+        includeWriter.close();
+        out.write("</div>");
+        assertFalse(out.checkError());
+        out.close();
+        assertEquals("<div>included</div>", target.toString());
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.engine.runtime;
+
+import javax.script.SimpleScriptContext;
+
+import java.io.StringWriter;
+
+import org.apache.sling.scripting.sightly.extension.RuntimeExtension;
+import org.apache.sling.scripting.sightly.impl.engine.ExtensionRegistryService;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RenderContextImplTest {
+
+    @Test
+    public void testOutputIsWrittenBeforeExtensionsWithSideEffects() {
+        StringWriter response = new StringWriter();
+        HTLOutputWriter out = HTLOutputWriter.forTarget(response);
+        ExtensionRegistryService registry = mock(ExtensionRegistryService.class);
+        // an extension calling a Use-object that writes to the response itself
+        when(registry.getExtension(RuntimeExtension.USE)).thenReturn((renderContext, arguments) -> {
+            response.write("[use]");
+            return null;
+        });
+        when(registry.getExtension(RuntimeExtension.XSS)).thenReturn((renderContext, arguments) -> arguments[0]);
+        RenderContextImpl renderContext = new RenderContextImpl(registry, new SimpleScriptContext(), out, null);
+
+        out.write("<div>");
+        renderContext.call(RuntimeExtension.XSS, "text");
+        assertEquals("", response.toString());
+        renderContext.call(RuntimeExtension.USE, "com.example.Use");
+        out.write("</div>");
+        out.close();
+        assertEquals("<div>[use]</div>", response.toString());
+    }
+}
@@ -18,21 +18,38 @@
  */
 package org.apache.sling.scripting.sightly.impl.engine.runtime;
 
+import java.lang.reflect.Array;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.sling.api.SlingJakartaHttpServletRequest;
 import org.apache.sling.api.adapter.Adaptable;
+import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.apache.sling.scripting.sightly.SightlyException;
+import org.apache.sling.testing.mock.osgi.MockOsgi;
+import org.apache.sling.testing.mock.sling.MockSling;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingJakartaHttpServletRequest;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.junit.Test;
+import org.osgi.framework.BundleContext;
 
 import static org.junit.Assert.*;
 
@@ -66,6 +83,71 @@ public class SlingRuntimeObjectModelTest {
                 slingRuntimeObjectModel.getProperty(new AdaptableTestMock(), "test"));
     }
 
+    @Test
+    public void getPropertyThroughCachedAccessors() {
+        for (int i = 0; i < 2; i++) {
+            assertEquals(METHOD_VALUE, slingRuntimeObjectModel.getProperty(new MethodTestMockAdaptable(), "test"));
+            assertEquals(true, slingRuntimeObjectModel.getProperty(new PropertiesMock(), "valid"));
+            assertEquals(42, slingRuntimeObjectModel.getProperty(new PropertiesMock(), "count"));
+            assertEquals("name", slingRuntimeObjectModel.getProperty(new PropertiesMock(), "name"));
+            assertNull(slingRuntimeObjectModel.getProperty(new PropertiesMock(), "missing"));
+            assertNull(slingRuntimeObjectModel.getProperty(new PropertiesMock(), "class"));
+            assertEquals("Field value", slingRuntimeObjectModel.getProperty(new FieldTestMockAdaptable(), "test"));
+            assertEquals(
+                    "interface value", slingRuntimeObjectModel.getProperty(new NonPublicImplementation(), "value"));
+        }
+    }
+
+    @Test
+    public void getPropertyFromFailingGetter() {
+        FailingGetterMock target = new FailingGetterMock();
+        SightlyException exception =
+                assertThrows(SightlyException.class, () -> slingRuntimeObjectModel.getProperty(target, "value"));
+        assertTrue(exception.getCause() instanceof IllegalStateException);
+        // the getter is not called a second time to report its failure
+        assertEquals(1, target.calls);
+    }
+
+    @Test
+    public void getPropertyFromAdaptableReusesTheValueMap() {
+        SlingRuntimeObjectModel runtimeObjectModel = new SlingRuntimeObjectModel();
+        int[] adaptations = new int[1];
+        AdaptableTestMock adaptable = new AdaptableTestMock() {
+            @Override
+            ValueMap getValueMap() {
+                adaptations[0]++;
+                return super.getValueMap();
+            }
+        };
+        assertEquals(VALUE_MAP_VALUE, runtimeObjectModel.getProperty(adaptable, "test"));
+        assertNull(runtimeObjectModel.getProperty(adaptable, "other"));
+        assertEquals(VALUE_MAP_VALUE, runtimeObjectModel.getProperty(adaptable, "test"));
+        assertEquals(1, adaptations[0]);
+        assertEquals(2, runtimeObjectModel.getReusedValueMaps());
+
+        assertEquals(VALUE_MAP_VALUE, runtimeObjectModel.getProperty(new AdaptableTestMock(), "test"));
+        assertEquals(2, runtimeObjectModel.getReusedValueMaps());
+
+        // the next render adapts the object again
+        runtimeObjectModel.releaseValueMaps();
+        assertEquals(VALUE_MAP_VALUE, runtimeObjectModel.getProperty(adaptable, "test"));
+        assertEquals(2, adaptations[0]);
+        assertEquals(2, runtimeObjectModel.getReusedValueMaps());
+    }
+
+    @Test
+    public void testToCollection() {
+        assertEquals(Arrays.asList(1L, 2L), new ArrayList<>(slingRuntimeObjectModel.toCollection(new long[] {1, 2})));
+        assertEquals(
+                Arrays.asList("a", "b"),
+                new ArrayList<>(slingRuntimeObjectModel.toCollection(Arrays.asList("a", "b").iterator())));
+        assertEquals(
+                Arrays.asList(1, 2),
+                new ArrayList<>(slingRuntimeObjectModel.toCollection(new Bag<>(new Integer[] {1, 2}))));
+        List<String> list = Arrays.asList("a", "b");
+        assertSame(list, slingRuntimeObjectModel.toCollection(list));
+    }
+
     @Test
     public void nullChecks() {
         assertNull(slingRuntimeObjectModel.getProperty(null, null));
@@ -73,6 +155,22 @@ public class SlingRuntimeObjectModelTest {
         assertNull(slingRuntimeObjectModel.getProperty(this, ""));
     }
 
+    @Test
+    public void testForRequest() {
+        BundleContext bundleContext = MockOsgi.newBundleContext();
+        ResourceResolver resourceResolver = MockSling.newResourceResolver(bundleContext);
+        SlingJakartaHttpServletRequest request = new MockSlingJakartaHttpServletRequest(resourceResolver, bundleContext);
+        SlingRuntimeObjectModel model = SlingRuntimeObjectModel.forRequest(request, false);
+        assertSame(model, SlingRuntimeObjectModel.forRequest(request, false));
+        SlingRuntimeObjectModel legacyModel = SlingRuntimeObjectModel.forRequest(request, true);
+        assertNotSame(model, legacyModel);
+        assertSame(legacyModel, SlingRuntimeObjectModel.forRequest(request, true));
+        assertNotSame(
+                legacyModel,
+                SlingRuntimeObjectModel.forRequest(
+                        new MockSlingJakartaHttpServletRequest(resourceResolver, bundleContext), true));
+    }
+
     @Test
     public void testToBooleanLegacy() {
         SlingRuntimeObjectModel runtimeObjectModel = new SlingRuntimeObjectModel(true);
@@ -134,6 +232,107 @@ public class SlingRuntimeObjectModelTest {
         assertTrue(runtimeObjectModel.toBoolean(map2));
     }
 
+    @Test
+    public void testToBooleanLegacyCompatibility() {
+        SlingRuntimeObjectModel runtimeObjectModel = new SlingRuntimeObjectModel(true);
+        List<String> falseList = new ArrayList<String>(Arrays.asList("a", "b")) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public String toString() {
+                return " false ";
+            }
+        };
+        Map<String, String> emptyStringMap = new HashMap<String, String>(Map.of("a", "b")) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public String toString() {
+                return "";
+            }
+        };
+        Object[] values = {
+            null,
+            0,
+            1.5,
+            "",
+            " ",
+            "false",
+            " TRUE ",
+            "text",
+            Boolean.FALSE,
+            new Object(),
+            new int[0],
+            new String[] {"a"},
+            new ArrayList<>(),
+            Arrays.asList("false"),
+            Arrays.asList(""),
+            new LinkedList<>(List.of(1)),
+            Collections.emptyList(),
+            Collections.singletonList("true"),
+            Collections.unmodifiableList(falseList),
+            falseList,
+            new Vector<>(List.of(1)),
+            new CopyOnWriteArrayList<>(),
+            new HashSet<>(List.of("x")),
+            new HashMap<>(),
+            new TreeMap<>(Map.of("a", 1)),
+            new ConcurrentHashMap<>(),
+            emptyStringMap,
+            Optional.empty(),
+            Optional.of("false"),
+            Optional.of(List.of()),
+            List.of(1).iterator(),
+            Collections.emptyIterator(),
+            new Bag<>(new Integer[] {1}),
+            TimeUnit.SECONDS
+        };
+        for (Object value : values) {
+            assertEquals(String.valueOf(value), legacyToBoolean(value), runtimeObjectModel.toBoolean(value));
+        }
+    }
+
+    /**
+     * The legacy boolean casting, as implemented before the standard {@code toString} implementations were skipped.
+     */
+    @SuppressWarnings("rawtypes")
+    private boolean legacyToBoolean(Object object) {
+        if (object == null) {
+            return false;
+        }
+        if (object instanceof Number) {
+            return ((Number) object).doubleValue() != 0.0;
+        }
+        String s = object.toString();
+        if (s != null) {
+            s = s.trim();
+        }
+        if ("".equals(s)) {
+            return false;
+        } else if ("true".equalsIgnoreCase(s) || "false".equalsIgnoreCase(s)) {
+            return Boolean.parseBoolean(s);
+        }
+        if (object instanceof Collection) {
+            return !((Collection) object).isEmpty();
+        }
+        if (object instanceof Map) {
+            return !((Map) object).isEmpty();
+        }
+        if (object instanceof Iterable<?>) {
+            return ((Iterable<?>) object).iterator().hasNext();
+        }
+        if (object instanceof Iterator<?>) {
+            return ((Iterator<?>) object).hasNext();
+        }
+        if (object instanceof Optional) {
+            return legacyToBoolean(((Optional) object).orElse(false));
+        }
+        if (object.getClass().isArray()) {
+            return Array.getLength(object) > 0;
+        }
+        return true;
+    }
+
     @Test
     public void testToBooleanLegacyFalse() {
         SlingRuntimeObjectModel runtimeObjectModel = new SlingRuntimeObjectModel(false);
@@ -260,4 +459,38 @@ public class SlingRuntimeObjectModelTest {
             };
         }
     }
+
+    public static class PropertiesMock {
+        public boolean isValid() {
+            return true;
+        }
+
+        public int getCount() {
+            return 42;
+        }
+
+        public String name() {
+            return "name";
+        }
+    }
+
+    public static class FailingGetterMock {
+        private int calls;
+
+        public String getValue() {
+            calls++;
+            throw new IllegalStateException("failing getter");
+        }
+    }
+
+    public interface ValueProvider {
+        String getValue();
+    }
+
+    private static class NonPublicImplementation implements ValueProvider {
+        @Override
+        public String getValue() {
+            return "interface value";
+        }
+    }
 }
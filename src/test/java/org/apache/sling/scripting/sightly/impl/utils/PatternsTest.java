@@ -28,6 +28,8 @@ import java.util.regex.Pattern;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class PatternsTest {
@@ -103,6 +105,25 @@ public class PatternsTest {
         testPattern(Patterns.JAVA_CLASS_NAME, inputs);
     }
 
+    @Test
+    public void testHasJavaPackageDeclaration() {
+        assertTrue(Patterns.hasJavaPackageDeclaration("package a.b.c;\npublic class D {}"));
+        assertTrue(Patterns.hasJavaPackageDeclaration("\uFEFF  package a.b.c;"));
+        assertTrue(Patterns.hasJavaPackageDeclaration(
+                "/*\n * Licensed under the Apache License.\n * package x.y;\n */\n// header\npackage a.b.c;\nclass D {}"));
+        assertTrue(Patterns.hasJavaPackageDeclaration("package a.b.c\n;\nclass D {}"));
+        assertTrue(Patterns.hasJavaPackageDeclaration("package\ta.$b._c ;"));
+        assertFalse(Patterns.hasJavaPackageDeclaration("// package a.b.c;\npublic class D {}"));
+        assertFalse(Patterns.hasJavaPackageDeclaration("/* package a.b.c; */\npublic class D {}"));
+        assertFalse(Patterns.hasJavaPackageDeclaration("import a.b.C;\npackage a.b.c;"));
+        assertFalse(Patterns.hasJavaPackageDeclaration("packagea.b.c;"));
+        assertFalse(Patterns.hasJavaPackageDeclaration("package 1a.b.c;"));
+        assertFalse(Patterns.hasJavaPackageDeclaration("package a.b.c"));
+        assertFalse(Patterns.hasJavaPackageDeclaration("/* package a.b.c;"));
+        assertFalse(Patterns.hasJavaPackageDeclaration("public class D {}"));
+        assertFalse(Patterns.hasJavaPackageDeclaration(""));
+    }
+
     private void testPattern(Pattern pattern, Object[] inputs) {
         StringBuilder errors = new StringBuilder();
         ExecutorService EXECUTOR_SERVICE = Executors.newSingleThreadExecutor();
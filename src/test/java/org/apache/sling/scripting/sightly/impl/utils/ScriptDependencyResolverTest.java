@@ -21,6 +21,8 @@ package org.apache.sling.scripting.sightly.impl.utils;
 import javax.script.Bindings;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,9 +41,12 @@ import org.apache.sling.testing.mock.sling.junit.SlingContext;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.powermock.reflect.Whitebox;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
@@ -143,6 +148,82 @@ public class ScriptDependencyResolverTest {
         verify(scriptingResolver, times(12)).getResource(anyString());
     }
 
+    @Test
+    public void testTargetedCacheInvalidation() throws PersistenceException {
+        setupDependencies(true);
+        Map<List<String>, String> resolutionCache =
+                Whitebox.getInternalState(scriptDependencyResolver, "resolutionCache");
+
+        assertNotNull(scriptDependencyResolver.resolveScript(renderContext, "partial.html"));
+        assertNull(scriptDependencyResolver.resolveScript(renderContext, "nonexisting.html"));
+        assertEquals(2, resolutionCache.size());
+
+        // changing the content of a file or adding an unrelated file keeps the cache
+        ResourceUtil.getOrCreateResource(
+                context.resourceResolver(), "/apps/base/other.html", "nt:file", "sling:Folder", true);
+        scriptDependencyResolver.onChange(Arrays.asList(
+                new ResourceChange(ResourceChange.ChangeType.CHANGED, "/apps/base/partial.html/jcr:content", false),
+                new ResourceChange(ResourceChange.ChangeType.ADDED, "/apps/base/other.html", false)));
+        assertEquals(2, resolutionCache.size());
+
+        // adding a file with the same name as a cached identifier evicts only that identifier
+        ResourceUtil.getOrCreateResource(
+                context.resourceResolver(), "/apps/inherit/nonexisting.html", "nt:file", "sling:Folder", true);
+        scriptDependencyResolver.onChange(Collections.singletonList(
+                new ResourceChange(ResourceChange.ChangeType.ADDED, "/apps/inherit/nonexisting.html", false)));
+        assertEquals(Collections.singleton(Arrays.asList("inherit", "partial.html")), resolutionCache.keySet());
+
+        // removing a resolved file evicts the identifiers resolved to it
+        scriptDependencyResolver.onChange(Collections.singletonList(
+                new ResourceChange(ResourceChange.ChangeType.REMOVED, "/apps/base/partial.html", false)));
+        assertTrue(resolutionCache.isEmpty());
+
+        // changes to non-file resources wipe the cache
+        assertNotNull(scriptDependencyResolver.resolveScript(renderContext, "partial.html"));
+        assertEquals(1, resolutionCache.size());
+        scriptDependencyResolver.onChange(Collections.singletonList(
+                new ResourceChange(ResourceChange.ChangeType.CHANGED, "/apps/inherit", false)));
+        assertTrue(resolutionCache.isEmpty());
+    }
+
+    @Test
+    public void testDottedFoldersAreNotFiles() throws PersistenceException {
+        setupDependencies(true);
+        Map<List<String>, String> resolutionCache =
+                Whitebox.getInternalState(scriptDependencyResolver, "resolutionCache");
+        ResourceUtil.getOrCreateResource(
+                context.resourceResolver(), "/apps/my.site/page/page.html", "nt:file", "sling:Folder", true);
+        resolutionCache.put(Arrays.asList("my.site/page", "page.html"), "/apps/my.site/page/page.html");
+        resolutionCache.put(Arrays.asList("inherit", "partial.html"), "/apps/base/partial.html");
+
+        // a changed folder with a dot in its name might define a sling:resourceSuperType
+        scriptDependencyResolver.onChange(Collections.singletonList(
+                new ResourceChange(ResourceChange.ChangeType.CHANGED, "/apps/my.site", false)));
+        assertTrue(resolutionCache.isEmpty());
+
+        // removing a folder evicts the identifiers resolved to the files it contained
+        resolutionCache.put(Arrays.asList("my.site/page", "page.html"), "/apps/my.site/page/page.html");
+        scriptDependencyResolver.onChange(Collections.singletonList(
+                new ResourceChange(ResourceChange.ChangeType.REMOVED, "/apps/my.site", false)));
+        assertTrue(resolutionCache.isEmpty());
+    }
+
+    @Test
+    public void testResourceTypesWithColons() throws PersistenceException {
+        setupDependencies(true);
+        Map<List<String>, String> resolutionCache =
+                Whitebox.getInternalState(scriptDependencyResolver, "resolutionCache");
+        ResourceUtil.getOrCreateResource(
+                context.resourceResolver(), "/apps/my/page.html", "nt:file", "sling:Folder", true);
+        resolutionCache.put(Arrays.asList("my:page", "partial.html"), "/apps/base/partial.html");
+        resolutionCache.put(Arrays.asList("my:page", "page.html"), "#NOT_FOUND#");
+
+        // only the identifier with the name of the added file is evicted
+        scriptDependencyResolver.onChange(Collections.singletonList(
+                new ResourceChange(ResourceChange.ChangeType.ADDED, "/apps/my/page.html", false)));
+        assertEquals(Collections.singleton(Arrays.asList("my:page", "partial.html")), resolutionCache.keySet());
+    }
+
     @Test
     public void noExistingResourceReturnsNull() {
         setupDependencies(true);